@@ -0,0 +1,413 @@
+package org.athento.nuxeo.bench;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.model.DocumentPart;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.model.impl.ListProperty;
+import org.nuxeo.ecm.core.api.model.impl.MapProperty;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.ecm.core.schema.types.QName;
+import org.nuxeo.ecm.core.schema.types.Schema;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory DocumentModel stand-ins for benchmarks. Only the methods used by
+ * InheritUtil and the propagation plan compiler are implemented; the values
+ * are kept by xpath ("schema:field", the prefix is the schema name). The
+ * compiler reads the fields of a schema from the document part, so no Nuxeo
+ * runtime is needed. List and complex values are ListProperty and
+ * MapProperty stand-ins, so they are updated item by item like in a
+ * repository; updates copy the value instead of changing the one of the
+ * origin.
+ */
+public final class DocumentStandIns {
+
+    /** Kind of generated properties. */
+    public enum Kind {
+        /** Strings, longs, booleans and dates. */
+        SCALAR,
+        /** Lists of 5 strings (ListProperty). */
+        LIST,
+        /** Complex properties of 5 fields (MapProperty). */
+        COMPLEX
+    }
+
+    private DocumentStandIns() {
+    }
+
+    /**
+     * Create a document.
+     *
+     * @param type
+     * @param schemas values by xpath for each schema
+     * @return document
+     */
+    public static DocumentModel document(String type, Map<String, Map<String, Serializable>> schemas) {
+        return (DocumentModel) Proxy.newProxyInstance(DocumentStandIns.class.getClassLoader(),
+                new Class<?>[] { DocumentModel.class }, new DocumentHandler(type, schemas));
+    }
+
+    /**
+     * Generate the values of a schema.
+     *
+     * @param schema
+     * @param propertyCount
+     * @param kind
+     * @param seed to generate different values
+     * @return values by xpath
+     */
+    public static Map<String, Serializable> schema(String schema, int propertyCount, Kind kind, int seed) {
+        Map<String, Serializable> values = new LinkedHashMap<>();
+        for (int i = 0; i < propertyCount; i++) {
+            values.put(schema + ":field" + i, value(kind, i, seed));
+        }
+        return values;
+    }
+
+    /**
+     * Generate a value.
+     *
+     * @param kind
+     * @param index of the property
+     * @param seed
+     * @return value
+     */
+    public static Serializable value(Kind kind, int index, int seed) {
+        switch (kind) {
+        case LIST:
+            ArrayList<String> list = new ArrayList<>(5);
+            for (int i = 0; i < 5; i++) {
+                list.add("item-" + index + "-" + i + "-" + seed);
+            }
+            return list;
+        case COMPLEX:
+            HashMap<String, Serializable> complex = new HashMap<>();
+            complex.put("name", "name-" + index + "-" + seed);
+            complex.put("code", (long) (index * 31 + seed));
+            complex.put("enabled", seed % 2 == 0);
+            complex.put("tags", new String[] { "a" + seed, "b" + seed });
+            complex.put("date", date(seed));
+            return complex;
+        default:
+            switch (index % 4) {
+            case 0:
+                return "value-" + index + "-" + seed;
+            case 1:
+                return (long) (index * 31 + seed);
+            case 2:
+                return seed % 2 == 0;
+            default:
+                return date(seed);
+            }
+        }
+    }
+
+    private static Calendar date(int seed) {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(1500000000000L + seed * 86400000L);
+        return date;
+    }
+
+    /**
+     * Document handler.
+     */
+    private static final class DocumentHandler implements InvocationHandler {
+
+        private final String id = UUID.randomUUID().toString();
+
+        private final String type;
+
+        private final Map<String, Map<String, Serializable>> schemas;
+
+        private final Map<String, Serializable> values = new HashMap<>();
+
+        DocumentHandler(String type, Map<String, Map<String, Serializable>> schemas) {
+            this.type = type;
+            this.schemas = schemas;
+            for (Map<String, Serializable> schemaValues : schemas.values()) {
+                values.putAll(schemaValues);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            switch (name) {
+            case "getId":
+                return id;
+            case "getRef":
+                return new IdRef(id);
+            case "getType":
+                return type;
+            case "getPathAsString":
+                return "/" + id;
+            case "getSchemas":
+                return schemas.keySet().toArray(new String[schemas.size()]);
+            case "hasSchema":
+            case "isSchemaLoaded":
+                return schemas.containsKey(args[0]);
+            case "hasFacet":
+            case "isVersion":
+            case "isFolder":
+                return false;
+            case "getPart":
+                return part((String) args[0]);
+            case "getPropertyValue":
+                return values.get(args[0]);
+            case "setPropertyValue":
+                values.put((String) args[0], (Serializable) args[1]);
+                return null;
+            case "getProperty":
+                return property((String) args[0]);
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return type + ":" + id;
+            default:
+                throw new UnsupportedOperationException(name + " " + Arrays.toString(args));
+            }
+        }
+
+        private DocumentPart part(final String schema) {
+            if (!schemas.containsKey(schema)) {
+                return null;
+            }
+            final List<Field> fields = new ArrayList<>();
+            for (String xpath : schemas.get(schema).keySet()) {
+                fields.add(field(xpath));
+            }
+            final Schema definition = (Schema) Proxy.newProxyInstance(DocumentStandIns.class.getClassLoader(),
+                    new Class<?>[] { Schema.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                            case "getName":
+                                return schema;
+                            case "getFields":
+                                return fields;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+            return (DocumentPart) Proxy.newProxyInstance(DocumentStandIns.class.getClassLoader(),
+                    new Class<?>[] { DocumentPart.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                            case "getSchema":
+                                return definition;
+                            case "getName":
+                                return schema;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+
+        private Field field(String xpath) {
+            final QName name = QName.valueOf(xpath);
+            return (Field) Proxy.newProxyInstance(DocumentStandIns.class.getClassLoader(),
+                    new Class<?>[] { Field.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if ("getName".equals(method.getName())) {
+                                return name;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        private Property property(String xpath) {
+            Serializable value = values.get(xpath);
+            if (value instanceof List) {
+                return new ListStandIn(xpath);
+            }
+            if (value instanceof Map) {
+                return new MapStandIn(xpath);
+            }
+            return scalar(xpath, xpath, null);
+        }
+
+        /**
+         * Scalar property, or item of a list or field of a complex value
+         * when "key" is an index or a field name.
+         */
+        private Property scalar(final String xpath, final String name, final Object key) {
+            return (Property) Proxy.newProxyInstance(DocumentStandIns.class.getClassLoader(),
+                    new Class<?>[] { Property.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                            case "getValue":
+                                return key == null ? values.get(xpath) : getItem(xpath, key);
+                            case "setValue":
+                                if (key == null) {
+                                    values.put(xpath, copy(args[0]));
+                                } else {
+                                    setItem(xpath, key, args[0]);
+                                }
+                                return null;
+                            case "getName":
+                                return name;
+                            case "getXPath":
+                                return xpath;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return xpath + (key == null ? "" : "/" + key);
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+
+        private Object getItem(String xpath, Object key) {
+            Serializable value = values.get(xpath);
+            return key instanceof Integer ? ((List<?>) value).get((Integer) key) : ((Map<?, ?>) value).get(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void setItem(String xpath, Object key, Object item) {
+            Serializable value = copy(values.get(xpath));
+            if (key instanceof Integer) {
+                ((List<Object>) value).set((Integer) key, item);
+            } else {
+                ((Map<Object, Object>) value).put(key, item);
+            }
+            values.put(xpath, value);
+        }
+
+        /**
+         * List property updated item by item.
+         */
+        private final class ListStandIn extends ListProperty {
+
+            private static final long serialVersionUID = 1L;
+
+            private final String xpath;
+
+            ListStandIn(String xpath) {
+                super(null, null);
+                this.xpath = xpath;
+            }
+
+            @Override
+            public String getName() {
+                return xpath;
+            }
+
+            @Override
+            public Serializable getValue() {
+                return values.get(xpath);
+            }
+
+            @Override
+            public void setValue(Object value) {
+                values.put(xpath, copy(value));
+            }
+
+            @Override
+            public int size() {
+                return ((List<?>) values.get(xpath)).size();
+            }
+
+            @Override
+            public Property get(int index) {
+                return scalar(xpath, "item", index);
+            }
+        }
+
+        /**
+         * Complex property updated field by field.
+         */
+        private final class MapStandIn extends MapProperty {
+
+            private static final long serialVersionUID = 1L;
+
+            private final String xpath;
+
+            MapStandIn(String xpath) {
+                super(null, null);
+                this.xpath = xpath;
+            }
+
+            @Override
+            public String getName() {
+                return xpath;
+            }
+
+            @Override
+            public Serializable getValue() {
+                return values.get(xpath);
+            }
+
+            @Override
+            public void setValue(Object value) {
+                values.put(xpath, copy(value));
+            }
+
+            @Override
+            public Collection<Property> getChildren() {
+                List<Property> children = new ArrayList<>();
+                for (Object field : ((Map<?, ?>) values.get(xpath)).keySet()) {
+                    children.add(scalar(xpath, (String) field, field));
+                }
+                return children;
+            }
+        }
+    }
+
+    /**
+     * Copy a list or complex value, so the value of another document is not
+     * changed.
+     *
+     * @param value
+     * @return copy
+     */
+    private static Serializable copy(Object value) {
+        if (value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        }
+        if (value instanceof Map) {
+            return new HashMap<>((Map<?, ?>) value);
+        }
+        return (Serializable) value;
+    }
+
+    /**
+     * Names of the properties of a schema.
+     *
+     * @param schema
+     * @param propertyCount
+     * @return xpaths
+     */
+    public static List<String> xpaths(String schema, int propertyCount) {
+        List<String> xpaths = new ArrayList<>(propertyCount);
+        for (int i = 0; i < propertyCount; i++) {
+            xpaths.add(schema + ":field" + i);
+        }
+        return xpaths;
+    }
+}
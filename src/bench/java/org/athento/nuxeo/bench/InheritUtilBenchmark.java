@@ -0,0 +1,148 @@
+package org.athento.nuxeo.bench;
+
+import org.athento.nuxeo.bench.DocumentStandIns.Kind;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the InheritUtil hot paths with in-memory documents of one
+ * propagated schema of "propertyCount" properties of a given kind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InheritUtilBenchmark {
+
+    /** Propagated schema. */
+    private static final String SCHEMA = "metadata";
+
+    @Param({ "10", "50", "200" })
+    public int propertyCount;
+
+    @Param({ "SCALAR", "LIST", "COMPLEX" })
+    public Kind kind;
+
+    private InheritanceConfig config;
+
+    /** Two parents with different values, used alternately. */
+    private DocumentModel[] origins;
+
+    /** Inheritor with the values of the first parent. */
+    private DocumentModel unchangedDestiny;
+
+    /** Inheritor which receives values of both parents alternately. */
+    private DocumentModel changedDestiny;
+
+    private int invocation;
+
+    private String[] schemas;
+
+    private String[] ignoredMetadatas;
+
+    private List<String> xpaths;
+
+    private Object[] emptyCandidates;
+
+    @Setup
+    public void setup() {
+        config = new InheritanceConfig(DocumentStandIns.document("ExtendedConfig",
+                Collections.<String, Map<String, Serializable>> emptyMap()));
+        origins = new DocumentModel[] { document("Folder", 0), document("Folder", 1) };
+        unchangedDestiny = document("File", 0);
+        changedDestiny = document("File", 0);
+        // Propagated schema is the last one of the list, as in a document type
+        schemas = new String[] { "dublincore", "common", "uid", "files", "file", "relatedtext",
+                "inheritance", "athentoRelation", "note", SCHEMA };
+        ignoredMetadatas = new String[20];
+        for (int i = 0; i < ignoredMetadatas.length; i++) {
+            ignoredMetadatas[i] = " other:field" + i + " ";
+        }
+        xpaths = DocumentStandIns.xpaths(SCHEMA, propertyCount);
+        emptyCandidates = new Object[] { null, "", "null", "value", Collections.emptyList(),
+                DocumentStandIns.value(kind, 0, 0) };
+        // Compile the plans before measuring
+        InheritUtil.propagateSchemas(config, origins[0], unchangedDestiny, schemas, ignoredMetadatas, false);
+    }
+
+    private DocumentModel document(String type, int seed) {
+        Map<String, Map<String, Serializable>> values = new LinkedHashMap<>();
+        values.put("dublincore", DocumentStandIns.schema("dublincore", 10, Kind.SCALAR, seed));
+        // Schemas of the list which are not ignored, without properties
+        values.put("relatedtext", DocumentStandIns.schema("relatedtext", 0, Kind.SCALAR, seed));
+        values.put("note", DocumentStandIns.schema("note", 0, Kind.SCALAR, seed));
+        values.put(SCHEMA, DocumentStandIns.schema(SCHEMA, propertyCount, kind, seed));
+        return DocumentStandIns.document(type, values);
+    }
+
+    /**
+     * Propagation to an inheritor which already has the parent values: only
+     * reads and comparisons.
+     */
+    @Benchmark
+    public int propagateSchemasUnchanged() {
+        return InheritUtil.propagateSchemas(config, origins[0], unchangedDestiny, schemas, ignoredMetadatas,
+                false);
+    }
+
+    /**
+     * Propagation where every property changes.
+     */
+    @Benchmark
+    public int propagateSchemasChanged() {
+        DocumentModel origin = origins[++invocation & 1];
+        return InheritUtil.propagateSchemas(config, origin, changedDestiny, schemas, ignoredMetadatas, false);
+    }
+
+    /**
+     * Propagation of one changed metadata (delta propagation).
+     */
+    @Benchmark
+    public int propagateSchemasDelta() {
+        DocumentModel origin = origins[++invocation & 1];
+        return InheritUtil.propagateSchemas(config, origin, changedDestiny, schemas, ignoredMetadatas, false,
+                Collections.singleton(SCHEMA + ":field0"));
+    }
+
+    @Benchmark
+    public void metadataMustBeIgnored(Blackhole bh) {
+        for (String xpath : xpaths) {
+            bh.consume(InheritUtil.metadataMustBeIgnored(xpath, ignoredMetadatas));
+        }
+    }
+
+    @Benchmark
+    public void isValidToPropagateSchema(Blackhole bh) {
+        for (String schema : schemas) {
+            bh.consume(InheritUtil.isValidToPropagateSchema(schema, schemas));
+        }
+    }
+
+    @Benchmark
+    public void checkEmpty(Blackhole bh) {
+        for (Object value : emptyCandidates) {
+            bh.consume(InheritUtil.checkEmpty(value));
+        }
+    }
+
+    @Benchmark
+    public String stringfy() {
+        return InheritUtil.stringfy(xpaths);
+    }
+}
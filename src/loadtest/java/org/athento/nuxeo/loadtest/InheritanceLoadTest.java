@@ -0,0 +1,287 @@
+package org.athento.nuxeo.loadtest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.test.annotations.Granularity;
+import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.test.runner.LocalDeploy;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end load tests of the propagation on an embedded repository. Events
+ * go through InheritMetadataListener and the workers as in a server.
+ *
+ * Tree shapes are given as system properties:
+ * <ul>
+ * <li>loadtest.width: children of the parent of the wide tree (default 1000)</li>
+ * <li>loadtest.depth: levels of the deep tree (default 3)</li>
+ * <li>loadtest.fanout: children of each folder of the deep tree (default 5)</li>
+ * <li>loadtest.batchSize: documents created per transaction (default 500)</li>
+ * <li>loadtest.timeout: max seconds to wait for a propagation (default 3600)</li>
+ * </ul>
+ * i.e. "mvn -Ploadtest verify -Dloadtest.width=100000" or
+ * "-Dloadtest.depth=5 -Dloadtest.fanout=20". Each scenario logs documents per
+ * second, time to full propagation and peak heap.
+ */
+@RunWith(FeaturesRunner.class)
+@Features(AutomationFeature.class)
+@RepositoryConfig(cleanup = Granularity.METHOD)
+@Deploy({ "org.nuxeo.ecm.core.cache", "org.athento.nuxeo.plugins.automation.nuxeo_inheritMetadatas" })
+@LocalDeploy({
+        "org.athento.nuxeo.plugins.automation.nuxeo_inheritMetadatas:OSGI-INF/loadtest-thumbnail-stub-contrib.xml",
+        "org.athento.nuxeo.plugins.automation.nuxeo_inheritMetadatas:OSGI-INF/loadtest-doctypes-contrib.xml" })
+public class InheritanceLoadTest {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(InheritanceLoadTest.class);
+
+    private static final int WIDTH = Integer.getInteger("loadtest.width", 1000);
+
+    private static final int DEPTH = Integer.getInteger("loadtest.depth", 3);
+
+    private static final int FANOUT = Integer.getInteger("loadtest.fanout", 5);
+
+    private static final int BATCH_SIZE = Integer.getInteger("loadtest.batchSize", 500);
+
+    private static final long TIMEOUT = Long.getLong("loadtest.timeout", 3600);
+
+    @Inject
+    protected CoreSession session;
+
+    /** Documents created in current transaction. */
+    private int pending;
+
+    @Before
+    public void setUp() {
+        DocumentModel config = session.createDocumentModel("/", "ExtendedConfig", "ExtendedConfig");
+        config.setPropertyValue("metadataInheritanceConfig:enableInheritance", true);
+        config.setPropertyValue("metadataInheritanceConfig:increaseVersion", false);
+        session.createDocument(config);
+        commit();
+    }
+
+    /**
+     * One parent with "loadtest.width" children created in a documentCreated
+     * storm: each child inherits the metadata of the parent.
+     */
+    @Test
+    public void testCreatedStorm() throws Exception {
+        DocumentModel parent = createParent("/", "wide", "v1");
+        Scenario scenario = new Scenario("documentCreated storm, width " + WIDTH);
+        for (int i = 0; i < WIDTH; i++) {
+            create(parent.getPathAsString(), "doc" + i, "LoadDocument");
+        }
+        commit();
+        scenario.created(WIDTH);
+        awaitPropagation();
+        scenario.propagated(WIDTH);
+        assertEquals(WIDTH, countInheritorsWithTitle("v1"));
+    }
+
+    /**
+     * Modification of the parent of "loadtest.width" inheritors.
+     */
+    @Test
+    public void testWideParentModification() throws Exception {
+        DocumentModel parent = createParent("/", "wide", "v1");
+        for (int i = 0; i < WIDTH; i++) {
+            create(parent.getPathAsString(), "doc" + i, "LoadDocument");
+        }
+        commit();
+        awaitPropagation();
+
+        Scenario scenario = new Scenario("parent modification, width " + WIDTH);
+        modifyParent(parent, "v2");
+        awaitPropagation();
+        scenario.propagated(WIDTH);
+        assertEquals(WIDTH, countInheritorsWithTitle("v2"));
+    }
+
+    /**
+     * Modification of the root of a tree of "loadtest.depth" levels of
+     * "loadtest.fanout" folders, with inheritors in the last level.
+     */
+    @Test
+    public void testDeepParentModification() throws Exception {
+        DocumentModel root = createParent("/", "deep", "v1");
+        Scenario creation = new Scenario("tree creation, depth " + DEPTH + ", fanout " + FANOUT);
+        int inheritors = createTree(root.getPathAsString(), 1);
+        commit();
+        creation.created(inheritors);
+        awaitPropagation();
+        creation.propagated(inheritors);
+        assertEquals(inheritors, countInheritorsWithTitle("v1"));
+
+        Scenario scenario = new Scenario("parent modification, depth " + DEPTH + ", fanout " + FANOUT);
+        modifyParent(session.getDocument(root.getRef()), "v2");
+        awaitPropagation();
+        scenario.propagated(inheritors);
+        assertEquals(inheritors, countInheritorsWithTitle("v2"));
+    }
+
+    /**
+     * Create a level of the deep tree.
+     *
+     * @param path
+     * @param level
+     * @return number of created inheritors
+     */
+    private int createTree(String path, int level) {
+        int inheritors = 0;
+        for (int i = 0; i < FANOUT; i++) {
+            if (level == DEPTH) {
+                create(path, "doc" + i, "LoadDocument");
+                inheritors++;
+            } else {
+                DocumentModel folder = create(path, "folder" + i, "Folder");
+                inheritors += createTree(folder.getPathAsString(), level + 1);
+            }
+        }
+        return inheritors;
+    }
+
+    private DocumentModel createParent(String path, String name, String title) {
+        DocumentModel parent = session.createDocumentModel(path, name, "LoadFolder");
+        setMetadata(parent, title);
+        parent = session.createDocument(parent);
+        commit();
+        awaitPropagation();
+        return parent;
+    }
+
+    private void modifyParent(DocumentModel parent, String title) {
+        setMetadata(parent, title);
+        session.saveDocument(parent);
+        commit();
+    }
+
+    private void setMetadata(DocumentModel doc, String title) {
+        Map<String, Serializable> party = new HashMap<>();
+        party.put("name", "party-" + title);
+        party.put("code", (long) title.hashCode());
+        doc.setPropertyValue("loadtest:title", title);
+        doc.setPropertyValue("loadtest:code", "code-" + title);
+        doc.setPropertyValue("loadtest:amount", (long) title.length());
+        doc.setPropertyValue("loadtest:confidential", title.hashCode() % 2 == 0);
+        doc.setPropertyValue("loadtest:dueDate", Calendar.getInstance());
+        doc.setPropertyValue("loadtest:tags", new String[] { "tag-" + title, "load" });
+        doc.setPropertyValue("loadtest:party", (Serializable) party);
+    }
+
+    private DocumentModel create(String path, String name, String type) {
+        DocumentModel doc = session.createDocument(session.createDocumentModel(path, name, type));
+        if (++pending >= BATCH_SIZE) {
+            commit();
+        }
+        return doc;
+    }
+
+    private void commit() {
+        pending = 0;
+        session.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+    }
+
+    /**
+     * Wait for post-commit listeners and inheritance works.
+     */
+    private void awaitPropagation() {
+        try {
+            Framework.getService(EventService.class).waitForAsyncCompletion();
+            assertTrue("Propagation not completed in " + TIMEOUT + "s",
+                    Framework.getService(WorkManager.class).awaitCompletion(TIMEOUT, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        // New transaction to see the changes of the works
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+    }
+
+    private int countInheritorsWithTitle(String title) {
+        String nxql = "SELECT * FROM LoadDocument WHERE loadtest:title = " + NXQL.escapeString(title)
+                + " AND ecm:isCheckedInVersion = 0";
+        return (int) session.query(nxql, null, 1, 0, true).totalSize();
+    }
+
+    /**
+     * Measures of a scenario.
+     */
+    private static final class Scenario {
+
+        private final String name;
+
+        private final long start = System.currentTimeMillis();
+
+        private long created = -1;
+
+        Scenario(String name) {
+            this.name = name;
+            resetPeakHeap();
+        }
+
+        void created(int documents) {
+            created = System.currentTimeMillis();
+            LOG.info(String.format("[%s] %d documents created in %d ms (%.1f docs/s)", name, documents,
+                    created - start, rate(documents, created - start)));
+        }
+
+        void propagated(int documents) {
+            long end = System.currentTimeMillis();
+            long duration = end - (created > 0 ? created : start);
+            LOG.info(String.format("[%s] full propagation to %d documents in %d ms (%.1f docs/s), "
+                    + "peak heap %d MB", name, documents, duration, rate(documents, duration),
+                    getPeakHeap() / (1024 * 1024)));
+        }
+
+        private static double rate(int documents, long millis) {
+            return millis == 0 ? documents : documents * 1000.0 / millis;
+        }
+
+        private static void resetPeakHeap() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+
+        private static long getPeakHeap() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            return peak;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.athento.nuxeo.config;
+
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the "metadataInheritanceConfig" schema of the
+ * ExtendedConfig document.
+ */
+public final class InheritanceConfig implements Serializable {
+
+    private static final long serialVersionUID = 3412986544128765401L;
+
+    /** Schema prefix. */
+    public static final String PREFIX = "metadataInheritanceConfig:";
+
+    /** Empty string array. */
+    private static final String[] EMPTY = new String[0];
+
+    private final boolean enableInheritance;
+
+    private final String ignoredMetadatas;
+
+    private final String[] ignoredMetadataList;
+
+    private final Set<String> ignoredMetadataSet;
+
+    private final boolean propagateNullValues;
+
+    private final boolean enableSiblingInheritance;
+
+    private final boolean ignoreVersions;
+
+    private final boolean overrideValues;
+
+    private final boolean increaseVersion;
+
+    private final boolean synchronousInheritance;
+
+    private final long versionWindow;
+
+    private final long versionChanges;
+
+    /** Version of the snapshot, computed from its values. */
+    private final long version;
+
+    /**
+     * Constructor.
+     *
+     * @param conf is the ExtendedConfig document
+     */
+    public InheritanceConfig(DocumentModel conf) {
+        this.enableInheritance = readBoolean(conf, "enableInheritance", true);
+        this.ignoredMetadatas = readString(conf, "ignoredMetadatas", "");
+        this.propagateNullValues = readBoolean(conf, "propagateNullValues", false);
+        this.enableSiblingInheritance = readBoolean(conf, "enableSiblingInheritance", false);
+        this.ignoreVersions = readBoolean(conf, "ignoreVersions", true);
+        this.overrideValues = readBoolean(conf, "overrideValues", true);
+        this.increaseVersion = readBoolean(conf, "increaseVersion", true);
+        this.synchronousInheritance = readBoolean(conf, "synchronousInheritance", false);
+        this.versionWindow = readLong(conf, "versionWindow", 0);
+        this.versionChanges = readLong(conf, "versionChanges", 0);
+        // Split ignored metadatas only once
+        Set<String> ignored = InheritUtil.parseList(this.ignoredMetadatas);
+        this.ignoredMetadataSet = Collections.unmodifiableSet(ignored);
+        this.ignoredMetadataList = ignored.toArray(EMPTY);
+        this.version = Arrays.hashCode(new Object[] { enableInheritance, ignoredMetadataSet,
+                propagateNullValues, enableSiblingInheritance, ignoreVersions, overrideValues,
+                increaseVersion, synchronousInheritance, versionWindow, versionChanges });
+    }
+
+    /**
+     * Read boolean value.
+     *
+     * @param conf
+     * @param field
+     * @param defaultValue
+     * @return
+     */
+    private static boolean readBoolean(DocumentModel conf, String field, boolean defaultValue) {
+        Boolean value = (Boolean) conf.getPropertyValue(PREFIX + field);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Read long value.
+     *
+     * @param conf
+     * @param field
+     * @param defaultValue
+     * @return
+     */
+    private static long readLong(DocumentModel conf, String field, long defaultValue) {
+        Number value = (Number) conf.getPropertyValue(PREFIX + field);
+        return value == null ? defaultValue : value.longValue();
+    }
+
+    /**
+     * Read string value.
+     *
+     * @param conf
+     * @param field
+     * @param defaultValue
+     * @return
+     */
+    private static String readString(DocumentModel conf, String field, String defaultValue) {
+        String value = (String) conf.getPropertyValue(PREFIX + field);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean isEnableInheritance() {
+        return enableInheritance;
+    }
+
+    /**
+     * Ignored metadatas as comma-separated value (as configured).
+     *
+     * @return
+     */
+    public String getIgnoredMetadatas() {
+        return ignoredMetadatas;
+    }
+
+    /**
+     * Ignored metadatas, already trimmed.
+     *
+     * @return a copy of the ignored metadata list
+     */
+    public String[] getIgnoredMetadataList() {
+        return ignoredMetadataList.clone();
+    }
+
+    /**
+     * Ignored metadatas, already trimmed.
+     *
+     * @return unmodifiable set
+     */
+    public Set<String> getIgnoredMetadataSet() {
+        return ignoredMetadataSet;
+    }
+
+    public boolean isPropagateNullValues() {
+        return propagateNullValues;
+    }
+
+    public boolean isEnableSiblingInheritance() {
+        return enableSiblingInheritance;
+    }
+
+    public boolean isIgnoreVersions() {
+        return ignoreVersions;
+    }
+
+    public boolean isOverrideValues() {
+        return overrideValues;
+    }
+
+    public boolean isIncreaseVersion() {
+        return increaseVersion;
+    }
+
+    /**
+     * If new inheritors inherit metadata in the transaction which creates
+     * them, instead of an asynchronous work.
+     *
+     * @return
+     */
+    public boolean isSynchronousInheritance() {
+        return synchronousInheritance;
+    }
+
+    /**
+     * Minutes since the last inheritance version of a document before the
+     * inheritance creates a new one, 0 to not coalesce by time.
+     *
+     * @return
+     */
+    public long getVersionWindow() {
+        return versionWindow;
+    }
+
+    /**
+     * Inheritance saves of a document which create one version, 0 to not
+     * coalesce by count.
+     *
+     * @return
+     */
+    public long getVersionChanges() {
+        return versionChanges;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "InheritanceConfig [enableInheritance=" + enableInheritance + ", ignoredMetadatas="
+                + ignoredMetadataSet + ", propagateNullValues=" + propagateNullValues
+                + ", enableSiblingInheritance=" + enableSiblingInheritance + ", ignoreVersions="
+                + ignoreVersions + ", overrideValues=" + overrideValues + ", increaseVersion="
+                + increaseVersion + ", synchronousInheritance=" + synchronousInheritance + ", versionWindow="
+                + versionWindow + ", versionChanges=" + versionChanges + "]";
+    }
+}
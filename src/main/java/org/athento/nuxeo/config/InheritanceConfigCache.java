@@ -0,0 +1,111 @@
+package org.athento.nuxeo.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.PathRef;
+import org.nuxeo.ecm.core.cache.Cache;
+import org.nuxeo.ecm.core.cache.CacheService;
+import org.nuxeo.runtime.api.Framework;
+
+import java.io.Serializable;
+
+/**
+ * Cache of inheritance config snapshots, one per repository.
+ *
+ * The cache is declared in cache-contrib.xml, so it can be replaced with a
+ * cluster-aware implementation (i.e. Redis) to share invalidations between
+ * nodes. Entries are invalidated by
+ * {@link org.athento.nuxeo.listener.InheritanceConfigListener} when the
+ * ExtendedConfig document changes.
+ */
+public final class InheritanceConfigCache {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(InheritanceConfigCache.class);
+
+    /** Cache name. */
+    public static final String CACHE_NAME = "inheritance-config";
+
+    private InheritanceConfigCache() {
+    }
+
+    /**
+     * Get config snapshot for the session repository.
+     *
+     * @param session
+     * @return config
+     */
+    public static InheritanceConfig get(CoreSession session) {
+        String repositoryName = session.getRepositoryName();
+        Cache cache = getCache();
+        if (cache != null) {
+            try {
+                Serializable value = cache.get(repositoryName);
+                if (value instanceof InheritanceConfig) {
+                    InheritanceMetrics.configLookup(false);
+                    return (InheritanceConfig) value;
+                }
+            } catch (Exception e) {
+                LOG.warn("Unable to read inheritance config from cache", e);
+            }
+        }
+        InheritanceConfig config = load(session);
+        InheritanceMetrics.configLookup(true);
+        if (cache != null) {
+            try {
+                cache.put(repositoryName, config);
+            } catch (Exception e) {
+                LOG.warn("Unable to put inheritance config into cache", e);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Load config from ExtendedConfig document.
+     *
+     * @param session
+     * @return config
+     */
+    public static InheritanceConfig load(CoreSession session) {
+        DocumentModel conf = session.getDocument(new PathRef(InheritUtil.CONFIG_PATH));
+        InheritanceConfig config = new InheritanceConfig(conf);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + config + " for repository " + session.getRepositoryName());
+        }
+        return config;
+    }
+
+    /**
+     * Invalidate config of a repository.
+     *
+     * @param repositoryName
+     */
+    public static void invalidate(String repositoryName) {
+        Cache cache = getCache();
+        if (cache != null) {
+            try {
+                cache.invalidate(repositoryName);
+            } catch (Exception e) {
+                LOG.warn("Unable to invalidate inheritance config", e);
+            }
+        }
+    }
+
+    /**
+     * Get cache.
+     *
+     * @return cache or null if it is not available
+     */
+    private static Cache getCache() {
+        CacheService cacheService = Framework.getService(CacheService.class);
+        if (cacheService == null) {
+            return null;
+        }
+        return cacheService.getCache(CACHE_NAME);
+    }
+}
@@ -1,18 +1,22 @@
 package org.athento.nuxeo.listener;
 
+import com.codahale.metrics.Timer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.propagation.PropagationDebouncer;
 import org.athento.nuxeo.utils.InheritUtil;
 import org.athento.nuxeo.worker.PropagateMetadataFromParentWorker;
 import org.athento.nuxeo.worker.PropagateMetadataWorker;
+import org.athento.nuxeo.worker.PropagateSiblingsWorker;
+import org.athento.nuxeo.worker.PropagateSubtreeWorker;
 import org.nuxeo.ecm.core.api.*;
 import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventBundle;
 import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
-import org.nuxeo.ecm.core.schema.FacetNames;
-import org.nuxeo.ecm.core.versioning.VersioningService;
 import org.nuxeo.ecm.core.work.api.Work;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.runtime.api.Framework;
@@ -36,7 +40,15 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
     public void handleEvent(EventBundle events) {
         for (Event event : events) {
             if (acceptEvent(event)) {
-                handleEvent(event);
+                Timer.Context timer = InheritanceMetrics.timeListener(event.getName());
+                try {
+                    handleEvent(event);
+                } catch (RuntimeException e) {
+                    InheritanceMetrics.listenerFailure(event.getName());
+                    throw e;
+                } finally {
+                    timer.stop();
+                }
             }
         }
     }
@@ -44,9 +56,14 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
      * Handler.
      */
     public void handleEvent(Event event) throws ClientException {
+        // Ignore documents saved by the inheritance itself
+        if (Boolean.TRUE.equals(event.getContext().getProperty(InheritUtil.SKIP_INHERITANCE))) {
+            return;
+        }
         CoreSession session = event.getContext().getCoreSession();
+        InheritanceConfig config = InheritUtil.getConfig(session);
         // Check enabled
-        if (!InheritUtil.readConfigValue(session, "metadataInheritanceConfig:enableInheritance", true)) {
+        if (!config.isEnableInheritance()) {
             return;
         }
         // Check document event context
@@ -58,6 +75,16 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
             if (currentDoc.isVersion()) {
                 return;
             }
+            // Descendants of a moved or copied folder could have a new inheritable ancestor
+            if (subtreeMustBeApplied(event, currentDoc)) {
+                PropagateSubtreeWorker worker = new PropagateSubtreeWorker(currentDoc.getRepositoryName(),
+                        currentDoc.getId());
+                Framework.getLocalService(WorkManager.class).schedule(worker,
+                        WorkManager.Scheduling.IF_NOT_SCHEDULED);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Subtree work [" + worker.getId() + "] queued after " + eventName);
+                }
+            }
             // Check document to know it it is container of other to start inheritance to its children
             if (parentDocumentMustBeApplied(currentDoc)) {
                 if (LOG.isInfoEnabled()) {
@@ -67,8 +94,22 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
                     if (LOG.isInfoEnabled()) {
                         LOG.info("Worker for inherit parent metadata...");
                     }
-                    boolean ignoreVersions = InheritUtil.readConfigValue(session, "metadataInheritanceConfig:ignoreVersions", true);
-                    PropagateMetadataFromParentWorker worker = new PropagateMetadataFromParentWorker("default", currentDoc.getId());
+                    boolean ignoreVersions = config.isIgnoreVersions();
+                    // Only changed metadatas are propagated when parent is modified
+                    String changedMetadatas = null;
+                    if (DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName) && currentDoc.hasSchema("inheritance")) {
+                        changedMetadatas = (String) currentDoc.getPropertyValue("inheritance:lastUpdatedMetadatas");
+                        if (changedMetadatas != null && changedMetadatas.isEmpty()) {
+                            if (LOG.isInfoEnabled()) {
+                                LOG.info("Inheritable " + currentDoc.getId() + " has no changed metadatas to propagate");
+                            }
+                            return;
+                        }
+                    }
+                    // Newer modification supersedes a running propagation of the parent
+                    PropagationDebouncer.touch(currentDoc.getId(), changedMetadatas);
+                    PropagateMetadataFromParentWorker worker = new PropagateMetadataFromParentWorker(
+                            currentDoc.getRepositoryName(), currentDoc.getId(), changedMetadatas);
                     worker.setIgnoreVersions(ignoreVersions);
                     WorkManager workManager = Framework.getLocalService(WorkManager.class);
                     workManager.schedule(worker, WorkManager.Scheduling.IF_NOT_SCHEDULED);
@@ -79,39 +120,34 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
                     }
 
                 } catch (Exception e) {
+                    InheritanceMetrics.listenerFailure(eventName);
                     LOG.error("Unable to execute inherit metadata from parent operation", e);
                 }
             } else if (documentMustBeApplied(currentDoc)) {
-                final String ignoredMetadatas = InheritUtil.readConfigValue(session, "metadataInheritanceConfig:ignoredMetadatas", "");
+                final String ignoredMetadatas = config.getIgnoredMetadatas();
                 if (DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName)) {
                     // Check sibling inheritance
-                    if (isSiblingInheritanceEnabled(session)) {
+                    if (config.isEnableSiblingInheritance()) {
                         if (LOG.isInfoEnabled()) {
                             LOG.info("Sibling is enabled: inheritor " + currentDoc.getId() + " updated, check updated parent...");
                         }
                         // Check update parent
                         if (!InheritUtil.hasRelation(currentDoc)) {
                             if (updateInheritableParent(currentDoc)) {
-                                String inheritableParentId = (String) currentDoc.getPropertyValue("inheritance:parentId");
-                                if (inheritableParentId != null && !inheritableParentId.isEmpty()) {
-                                    // Find first inheritable parent
-                                    DocumentModel parentDoc = session.getDocument(new IdRef(inheritableParentId));
-                                    // When update document only the updated metadata will be propagated
-                                    if (currentDoc.hasSchema("inheritance")) {
-                                        if (LOG.isInfoEnabled()) {
-                                            LOG.info("Propagate all allowed schemas: " + parentDoc.getRef());
+                                if (currentDoc.hasSchema("inheritance")) {
+                                    String inheritableParentId = (String) currentDoc.getPropertyValue("inheritance:parentId");
+                                    if (inheritableParentId != null && !inheritableParentId.isEmpty()) {
+                                        // Parent and siblings are updated by a work, excluding this document
+                                        PropagateSiblingsWorker worker = new PropagateSiblingsWorker(
+                                                currentDoc.getRepositoryName(), currentDoc.getId(), inheritableParentId);
+                                        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+                                        workManager.schedule(worker, WorkManager.Scheduling.IF_NOT_SCHEDULED);
+                                        if (LOG.isDebugEnabled()) {
+                                            LOG.debug("Sibling work [" + worker.getId() + "] queued");
                                         }
-                                        // Propagate all allowed parent schemas
-                                        InheritUtil.propagateSchemas(session, currentDoc, parentDoc, parentDoc.getSchemas(), ignoredMetadatas.split(","), false);
-                                        // Increase version
-                                        if (parentDoc.hasFacet(FacetNames.VERSIONABLE)) {
-                                            parentDoc.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.MINOR);
-                                        }
-                                        // Save parent doc
-                                        session.saveDocument(parentDoc);
-                                    } else {
-                                        LOG.warn("Inheritance metadata is not found into document inherited.");
                                     }
+                                } else {
+                                    LOG.warn("Inheritance metadata is not found into document inherited.");
                                 }
                             }
                         }
@@ -122,12 +158,21 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Inheritor " + currentDoc.getId() + " created, duplicated or moved...");
                     }
+                    // Already inherited in the creating transaction
+                    if (DocumentEventTypes.DOCUMENT_CREATED.equals(eventName) && config.isSynchronousInheritance()
+                            && SynchronousInheritanceListener.isInherited(currentDoc)) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Inheritor " + currentDoc.getId() + " inherited on creation");
+                        }
+                        return;
+                    }
                     try {
                         if (LOG.isInfoEnabled()) {
                             LOG.info("Worker for inherit metadata from " + eventName);
                         }
                         // Load add for document
-                        PropagateMetadataWorker worker = new PropagateMetadataWorker("default", currentDoc.getId());
+                        PropagateMetadataWorker worker = new PropagateMetadataWorker(currentDoc.getRepositoryName(),
+                                currentDoc.getId());
                         worker.setIgnoredMetadatas(ignoredMetadatas);
                         WorkManager workManager = Framework.getLocalService(WorkManager.class);
                         workManager.schedule(worker, WorkManager.Scheduling.IF_NOT_SCHEDULED);
@@ -144,16 +189,6 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
         }
     }
 
-    /**
-     * Check if sibling inheritance is enabled.
-     *
-     * @param session
-     * @return
-     */
-    private boolean isSiblingInheritanceEnabled(CoreSession session) {
-        return InheritUtil.readConfigValue(session, "metadataInheritanceConfig:enableSiblingInheritance", false);
-    }
-
     /**
      * Check if document must be modify "inheritable" parent document.
      *
@@ -171,6 +206,26 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
     }
 
 
+    /**
+     * Check if the inheritors of a folder must be checked after it is moved
+     * or copied, or its "inheritable" facet is added or removed. Moved or
+     * copied inheritable folders propagate to all their inheritors.
+     *
+     * @param event
+     * @param currentDoc
+     * @return
+     */
+    private boolean subtreeMustBeApplied(Event event, DocumentModel currentDoc) {
+        String eventName = event.getName();
+        if (DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName)) {
+            // Inheritors under the folder have a new nearest inheritable ancestor
+            return Boolean.TRUE.equals(event.getContext().getProperty(InheritUtil.INHERITABLE_FACET_CHANGED));
+        }
+        return (DocumentEventTypes.DOCUMENT_MOVED.equals(eventName)
+                || DocumentEventTypes.DOCUMENT_CREATED_BY_COPY.equals(eventName))
+                && currentDoc.isFolder() && !parentDocumentMustBeApplied(currentDoc);
+    }
+
     /**
      * Check if document type is valid to start inheritance.
      *
@@ -208,6 +263,7 @@ public class InheritMetadataListener implements PostCommitFilteringEventListener
         return DocumentEventTypes.DOCUMENT_CREATED.equals(event.getName())
                 || DocumentEventTypes.DOCUMENT_MOVED.equals(event.getName())
                 || DocumentEventTypes.DOCUMENT_DUPLICATED.equals(event.getName())
+                || DocumentEventTypes.DOCUMENT_CREATED_BY_COPY.equals(event.getName())
                 || DocumentEventTypes.DOCUMENT_UPDATED.equals(event.getName());
     }
 }
@@ -0,0 +1,108 @@
+package org.athento.nuxeo.listener;
+
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.DocumentPart;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keep the changed metadatas of an "inheritable" document into
+ * "inheritance:lastUpdatedMetadatas" before it is saved, so only these
+ * metadatas are propagated to its inheritors. It also marks the folders whose
+ * "inheritable" facet is added or removed by the save. Checkpoint saves of a
+ * parent ({@link InheritUtil#CHECKPOINT_SAVE}) are skipped, so they don't
+ * clear the metadatas of an edit whose propagation is still waiting.
+ */
+public class InheritableChangesListener implements EventListener {
+
+    /**
+     * Log.
+     */
+    private static final Log LOG = LogFactory.getLog(InheritableChangesListener.class);
+
+    /**
+     * Handler.
+     */
+    @Override
+    public void handleEvent(Event event) {
+        if (!DocumentEventTypes.BEFORE_DOC_UPDATE.equals(event.getName())
+                || !(event.getContext() instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+        if (doc == null || doc.isVersion()
+                || Boolean.TRUE.equals(event.getContext().getProperty(InheritUtil.CHECKPOINT_SAVE))) {
+            return;
+        }
+        if (doc.isFolder()) {
+            markFacetChange(event.getContext().getCoreSession(), doc);
+        }
+        if (!doc.hasFacet("inheritable") || !doc.hasSchema("inheritance")) {
+            return;
+        }
+        Timer.Context timer = InheritanceMetrics.timeListener(event.getName());
+        try {
+            List<String> changedMetadatas = getChangedMetadatas(doc);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Changed metadatas of inheritable " + doc.getId() + ": " + changedMetadatas);
+            }
+            doc.setPropertyValue("inheritance:lastUpdatedMetadatas", InheritUtil.stringfy(changedMetadatas));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Compare the "inheritable" facet of a folder with the saved one, not
+     * written yet, and keep the result into its context data for the
+     * listeners of the modification.
+     *
+     * @param session
+     * @param doc
+     */
+    private void markFacetChange(CoreSession session, DocumentModel doc) {
+        boolean changed = session.getDocument(doc.getRef()).hasFacet("inheritable") != doc.hasFacet("inheritable");
+        doc.putContextData(InheritUtil.INHERITABLE_FACET_CHANGED, changed);
+        if (changed && LOG.isDebugEnabled()) {
+            LOG.debug("Facet inheritable of " + doc.getId() + " changed");
+        }
+    }
+
+    /**
+     * Get dirty metadatas of the document which can be propagated.
+     *
+     * @param doc
+     * @return metadata list
+     */
+    private List<String> getChangedMetadatas(DocumentModel doc) {
+        List<String> changedMetadatas = new ArrayList<>();
+        for (String schema : doc.getSchemas()) {
+            // Not loaded schemas are not modified
+            if (InheritUtil.schemaMustBeIgnored(schema) || !doc.isSchemaLoaded(schema)) {
+                continue;
+            }
+            DocumentPart part = doc.getPart(schema);
+            if (part == null || !part.isDirty()) {
+                continue;
+            }
+            for (Property property : part.getChildren()) {
+                if (property.isDirty()) {
+                    changedMetadatas.add(property.getName());
+                }
+            }
+        }
+        return changedMetadatas;
+    }
+}
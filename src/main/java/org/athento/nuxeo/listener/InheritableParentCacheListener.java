@@ -0,0 +1,79 @@
+package org.athento.nuxeo.listener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.propagation.InheritableParentResolver;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+/**
+ * Invalidate cached inheritable parents when folders are moved or removed, or
+ * when the "inheritable" facet of a folder changes.
+ */
+public class InheritableParentCacheListener implements PostCommitFilteringEventListener {
+
+    /**
+     * Log.
+     */
+    private static final Log LOG = LogFactory.getLog(InheritableParentCacheListener.class);
+
+    /**
+     * Handle event.
+     *
+     * @param events
+     */
+    @Override
+    public void handleEvent(EventBundle events) {
+        for (Event event : events) {
+            if (acceptEvent(event) && mustInvalidate(event)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Invalidating inheritable parents after " + event.getName());
+                }
+                InheritableParentResolver.invalidateAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if cached parents must be invalidated.
+     *
+     * @param event
+     * @return
+     */
+    private boolean mustInvalidate(Event event) {
+        if (DocumentEventTypes.DOCUMENT_UPDATED.equals(event.getName())) {
+            // Facet "inheritable" added or removed, see InheritableChangesListener
+            return Boolean.TRUE.equals(event.getContext().getProperty(InheritUtil.INHERITABLE_FACET_CHANGED));
+        }
+        return true;
+    }
+
+    /**
+     * Accept events of folders.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public boolean acceptEvent(Event event) {
+        String eventName = event.getName();
+        if (!DocumentEventTypes.DOCUMENT_MOVED.equals(eventName)
+                && !DocumentEventTypes.DOCUMENT_REMOVED.equals(eventName)
+                && !DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName)) {
+            return false;
+        }
+        EventContext ctx = event.getContext();
+        if (ctx instanceof DocumentEventContext) {
+            DocumentModel doc = ((DocumentEventContext) ctx).getSourceDocument();
+            return doc != null && doc.isFolder() && !doc.isVersion();
+        }
+        return false;
+    }
+}
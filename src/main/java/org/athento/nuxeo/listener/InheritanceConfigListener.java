@@ -0,0 +1,65 @@
+package org.athento.nuxeo.listener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfigCache;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.EventContext;
+import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+/**
+ * Invalidate cached inheritance config when ExtendedConfig document changes.
+ */
+public class InheritanceConfigListener implements PostCommitFilteringEventListener {
+
+    /**
+     * Log.
+     */
+    private static final Log LOG = LogFactory.getLog(InheritanceConfigListener.class);
+
+    /**
+     * Handle event.
+     *
+     * @param events
+     */
+    @Override
+    public void handleEvent(EventBundle events) {
+        for (Event event : events) {
+            if (acceptEvent(event)) {
+                String repositoryName = event.getContext().getRepositoryName();
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("ExtendedConfig changed, invalidating inheritance config of " + repositoryName);
+                }
+                InheritanceConfigCache.invalidate(repositoryName);
+            }
+        }
+    }
+
+    /**
+     * Accept events of ExtendedConfig document.
+     *
+     * @param event
+     * @return
+     */
+    @Override
+    public boolean acceptEvent(Event event) {
+        String eventName = event.getName();
+        if (!DocumentEventTypes.DOCUMENT_CREATED.equals(eventName)
+                && !DocumentEventTypes.DOCUMENT_UPDATED.equals(eventName)
+                && !DocumentEventTypes.DOCUMENT_REMOVED.equals(eventName)) {
+            return false;
+        }
+        EventContext ctx = event.getContext();
+        if (ctx instanceof DocumentEventContext) {
+            DocumentModel doc = ((DocumentEventContext) ctx).getSourceDocument();
+            return doc != null && !doc.isVersion()
+                    && InheritUtil.CONFIG_PATH.equals(doc.getPathAsString());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,118 @@
+package org.athento.nuxeo.listener;
+
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.operations.InheritMetadataOperation;
+import org.athento.nuxeo.propagation.InheritableParentResolver;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+
+/**
+ * Inherit metadata into an inheritor before it is created, in the creating
+ * transaction, when "synchronousInheritance" is enabled. The document is
+ * written only once and {@link InheritMetadataListener} does not schedule a
+ * work for it.
+ *
+ * Inheritors without "inheritance:parentId" (i.e. created before this mode
+ * was enabled) inherit before their next modification is saved.
+ */
+public class SynchronousInheritanceListener implements EventListener {
+
+    /**
+     * Log.
+     */
+    private static final Log LOG = LogFactory.getLog(SynchronousInheritanceListener.class);
+
+    /**
+     * Metrics tag.
+     */
+    private static final String METRICS_TAG = "synchronousInheritance";
+
+    /**
+     * Handler.
+     */
+    @Override
+    public void handleEvent(Event event) {
+        String eventName = event.getName();
+        if (!(event.getContext() instanceof DocumentEventContext)) {
+            return;
+        }
+        DocumentModel doc = ((DocumentEventContext) event.getContext()).getSourceDocument();
+        if (!mustInherit(eventName, doc)) {
+            return;
+        }
+        CoreSession session = event.getContext().getCoreSession();
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        if (!config.isEnableInheritance() || !config.isSynchronousInheritance()) {
+            return;
+        }
+        Timer.Context timer = InheritanceMetrics.timeListener(eventName);
+        try {
+            // Inheritors out of any inheritable folder have nothing to inherit
+            if (InheritableParentResolver.getInheritableParent(session, doc) == null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("No inheritable parent for " + doc.getPathAsString() + " on " + eventName);
+                }
+                return;
+            }
+            InheritMetadataOperation op = new InheritMetadataOperation();
+            op.setSession(session);
+            op.setParamIgnoreMetadatas(config.getIgnoredMetadatas());
+            op.run(doc);
+            InheritanceMetrics.count(METRICS_TAG, InheritanceMetrics.DOCUMENTS_SCANNED, 1);
+            InheritanceMetrics.count(METRICS_TAG, InheritanceMetrics.PROPERTIES_WRITTEN, op.getChangedCount());
+        } catch (Exception e) {
+            // Document is inherited later by the asynchronous work
+            InheritanceMetrics.listenerFailure(eventName);
+            LOG.warn("Unable to inherit metadata on " + eventName + " of " + doc.getPathAsString()
+                    + ", it will be inherited asynchronously", e);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Check if the document must inherit: new inheritors, or inheritors
+     * without inheritable parent yet.
+     *
+     * @param eventName
+     * @param doc
+     * @return
+     */
+    private boolean mustInherit(String eventName, DocumentModel doc) {
+        if (doc == null || doc.isVersion() || doc.isProxy() || !doc.hasFacet("inheritor")
+                || !doc.hasSchema("inheritance") || InheritUtil.hasRelation(doc)) {
+            return false;
+        }
+        if (DocumentEventTypes.ABOUT_TO_CREATE.equals(eventName)) {
+            return true;
+        }
+        if (DocumentEventTypes.BEFORE_DOC_UPDATE.equals(eventName)) {
+            String parentId = (String) doc.getPropertyValue("inheritance:parentId");
+            return parentId == null || parentId.isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * Check if a created document has been inherited synchronously.
+     *
+     * @param doc
+     * @return
+     */
+    public static boolean isInherited(DocumentModel doc) {
+        if (!doc.hasSchema("inheritance")) {
+            return false;
+        }
+        String parentId = (String) doc.getPropertyValue("inheritance:parentId");
+        return parentId != null && !parentId.isEmpty();
+    }
+}
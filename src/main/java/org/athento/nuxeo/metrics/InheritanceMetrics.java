@@ -0,0 +1,177 @@
+package org.athento.nuxeo.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.nuxeo.ecm.core.work.api.Work;
+import org.nuxeo.runtime.metrics.MetricsService;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the inheritance pipeline, published in the Nuxeo
+ * metrics registry.
+ *
+ * Metric names are "athento.inheritance.&lt;scope&gt;.&lt;tag&gt;.&lt;metric&gt;"
+ * where scope is "listener" (tagged by event type) or "worker" (tagged by
+ * worker class or source of the propagation), i.e.
+ * "athento.inheritance.worker.PropagateMetadataFromParentWorker.documentsSaved".
+ * Totals are also exposed as a JMX MBean by {@link InheritanceMetricsComponent}.
+ */
+public final class InheritanceMetrics {
+
+    /** Prefix of metric names. */
+    public static final String PREFIX = "athento.inheritance";
+
+    /** Listener scope. */
+    public static final String LISTENER = "listener";
+
+    /** Worker scope. */
+    public static final String WORKER = "worker";
+
+    /** Handling time of listeners and duration of workers. */
+    public static final String DURATION = "duration";
+
+    /** Time spent by works in queue. */
+    public static final String QUEUED = "queued";
+
+    public static final String DOCUMENTS_SCANNED = "documentsScanned";
+
+    public static final String PROPERTIES_WRITTEN = "propertiesWritten";
+
+    public static final String DOCUMENTS_SAVED = "documentsSaved";
+
+    public static final String VERSIONS_CREATED = "versionsCreated";
+
+    public static final String FAILURES = "failures";
+
+    /** Config lookups (cache hits and loads). */
+    public static final String CONFIG_LOOKUPS = "config.lookups";
+
+    /** Config loads from the ExtendedConfig document. */
+    public static final String CONFIG_LOADS = "config.loads";
+
+    /** Registry. */
+    private static final MetricRegistry REGISTRY = SharedMetricRegistries.getOrCreate(
+            MetricsService.class.getName());
+
+    private InheritanceMetrics() {
+    }
+
+    /**
+     * Get registry.
+     *
+     * @return
+     */
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Start timing the handling of an event.
+     *
+     * @param eventName
+     * @return context to stop
+     */
+    public static Timer.Context timeListener(String eventName) {
+        return REGISTRY.timer(MetricRegistry.name(PREFIX, LISTENER, eventName, DURATION)).time();
+    }
+
+    /**
+     * Count a listener failure.
+     *
+     * @param eventName
+     */
+    public static void listenerFailure(String eventName) {
+        REGISTRY.counter(MetricRegistry.name(PREFIX, LISTENER, eventName, FAILURES)).inc();
+    }
+
+    /**
+     * Start timing a work, recording the time it has spent in the queue.
+     *
+     * @param work
+     * @return context to stop
+     */
+    public static Timer.Context timeWorker(Work work) {
+        String tag = work.getClass().getSimpleName();
+        long schedulingTime = work.getSchedulingTime();
+        if (schedulingTime > 0) {
+            long queued = System.currentTimeMillis() - schedulingTime;
+            REGISTRY.timer(MetricRegistry.name(PREFIX, WORKER, tag, QUEUED)).update(
+                    Math.max(queued, 0), TimeUnit.MILLISECONDS);
+        }
+        return REGISTRY.timer(MetricRegistry.name(PREFIX, WORKER, tag, DURATION)).time();
+    }
+
+    /**
+     * Count documents, properties or failures of a worker.
+     *
+     * @param tag is the worker class or source of the propagation
+     * @param metric i.e. {@link #DOCUMENTS_SAVED}
+     * @param count
+     */
+    public static void count(String tag, String metric, long count) {
+        if (count > 0) {
+            REGISTRY.counter(MetricRegistry.name(PREFIX, WORKER, tag, metric)).inc(count);
+        }
+    }
+
+    /**
+     * Count documents, properties or failures of a worker.
+     *
+     * @param worker class
+     * @param metric i.e. {@link #DOCUMENTS_SAVED}
+     * @param count
+     */
+    public static void count(Class<?> worker, String metric, long count) {
+        count(worker.getSimpleName(), metric, count);
+    }
+
+    /**
+     * Count a config lookup.
+     *
+     * @param loaded if the config has been loaded from the document
+     */
+    public static void configLookup(boolean loaded) {
+        REGISTRY.counter(MetricRegistry.name(PREFIX, CONFIG_LOOKUPS)).inc();
+        if (loaded) {
+            REGISTRY.counter(MetricRegistry.name(PREFIX, CONFIG_LOADS)).inc();
+        }
+    }
+
+    /**
+     * Sum a metric of all tags of a scope.
+     *
+     * @param scope {@link #LISTENER} or {@link #WORKER}
+     * @param metric
+     * @return total count
+     */
+    public static long total(String scope, String metric) {
+        String prefix = MetricRegistry.name(PREFIX, scope) + '.';
+        String suffix = '.' + metric;
+        long total = 0;
+        for (Map.Entry<String, Counter> entry : REGISTRY.getCounters().entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getKey().endsWith(suffix)) {
+                total += entry.getValue().getCount();
+            }
+        }
+        for (Map.Entry<String, Timer> entry : REGISTRY.getTimers().entrySet()) {
+            if (entry.getKey().startsWith(prefix) && entry.getKey().endsWith(suffix)) {
+                total += entry.getValue().getCount();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Get a global counter.
+     *
+     * @param metric i.e. {@link #CONFIG_LOOKUPS}
+     * @return count
+     */
+    public static long get(String metric) {
+        return REGISTRY.counter(MetricRegistry.name(PREFIX, metric)).getCount();
+    }
+}
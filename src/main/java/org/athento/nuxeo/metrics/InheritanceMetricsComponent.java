@@ -0,0 +1,175 @@
+package org.athento.nuxeo.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.propagation.PropagationThrottle;
+import org.athento.nuxeo.worker.PropagateMetadataFromParentWorker;
+import org.athento.nuxeo.worker.PropagateMetadataWorker;
+import org.nuxeo.ecm.core.work.api.Work;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Register the queue depth gauges and the JMX MBean of the inheritance
+ * metrics.
+ */
+public class InheritanceMetricsComponent extends DefaultComponent implements InheritanceMetricsMBean {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(InheritanceMetricsComponent.class);
+
+    /** MBean name. */
+    public static final String MBEAN_NAME = "org.athento.nuxeo:type=MetadataInheritance,name=metrics";
+
+    /** Work categories of the inheritance queues. */
+    private static final String[] CATEGORIES = { PropagateMetadataWorker.CATEGORY,
+            PropagateMetadataFromParentWorker.CATEGORY };
+
+    /** Gauges prefix. */
+    private static final String QUEUE_PREFIX = MetricRegistry.name(InheritanceMetrics.PREFIX, "queue");
+
+    /** Throttle rate gauge. */
+    private static final String THROTTLE_RATE = MetricRegistry.name(InheritanceMetrics.PREFIX, "throttle", "rate");
+
+    @Override
+    public void activate(ComponentContext context) {
+        MetricRegistry registry = InheritanceMetrics.getRegistry();
+        for (final String category : CATEGORIES) {
+            registry.register(MetricRegistry.name(QUEUE_PREFIX, category, "scheduled"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getQueueSize(category, Work.State.SCHEDULED);
+                }
+            });
+            registry.register(MetricRegistry.name(QUEUE_PREFIX, category, "running"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getQueueSize(category, Work.State.RUNNING);
+                }
+            });
+        }
+        registry.register(THROTTLE_RATE, new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return PropagationThrottle.getRate();
+            }
+        });
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            LOG.warn("Unable to register inheritance metrics MBean", e);
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        InheritanceMetrics.getRegistry().removeMatching(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return name.startsWith(QUEUE_PREFIX + '.') || name.equals(THROTTLE_RATE);
+            }
+        });
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            LOG.debug("Unable to unregister inheritance metrics MBean", e);
+        }
+    }
+
+    /**
+     * Get number of works of a category in a state.
+     *
+     * @param category
+     * @param state
+     * @return size or 0 if the work manager is not available
+     */
+    private static int getQueueSize(String category, Work.State state) {
+        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+        if (workManager == null) {
+            return 0;
+        }
+        return workManager.getQueueSize(workManager.getCategoryQueueId(category), state);
+    }
+
+    @Override
+    public long getEventsHandled() {
+        return InheritanceMetrics.total(InheritanceMetrics.LISTENER, InheritanceMetrics.DURATION);
+    }
+
+    @Override
+    public long getListenerFailures() {
+        return InheritanceMetrics.total(InheritanceMetrics.LISTENER, InheritanceMetrics.FAILURES);
+    }
+
+    @Override
+    public long getWorksExecuted() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.DURATION);
+    }
+
+    @Override
+    public long getDocumentsScanned() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.DOCUMENTS_SCANNED);
+    }
+
+    @Override
+    public long getPropertiesWritten() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.PROPERTIES_WRITTEN);
+    }
+
+    @Override
+    public long getDocumentsSaved() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.DOCUMENTS_SAVED);
+    }
+
+    @Override
+    public long getVersionsCreated() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.VERSIONS_CREATED);
+    }
+
+    @Override
+    public long getWorkerFailures() {
+        return InheritanceMetrics.total(InheritanceMetrics.WORKER, InheritanceMetrics.FAILURES);
+    }
+
+    @Override
+    public long getConfigLookups() {
+        return InheritanceMetrics.get(InheritanceMetrics.CONFIG_LOOKUPS);
+    }
+
+    @Override
+    public long getConfigLoads() {
+        return InheritanceMetrics.get(InheritanceMetrics.CONFIG_LOADS);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (String category : CATEGORIES) {
+            depth += getQueueSize(category, Work.State.SCHEDULED);
+        }
+        return depth;
+    }
+
+    @Override
+    public int getRunningWorks() {
+        int running = 0;
+        for (String category : CATEGORIES) {
+            running += getQueueSize(category, Work.State.RUNNING);
+        }
+        return running;
+    }
+
+    @Override
+    public double getThrottleRate() {
+        return PropagationThrottle.getRate();
+    }
+}
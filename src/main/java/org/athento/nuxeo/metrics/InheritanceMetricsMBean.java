@@ -0,0 +1,33 @@
+package org.athento.nuxeo.metrics;
+
+/**
+ * JMX view of the inheritance metrics, totals of all event types and workers.
+ */
+public interface InheritanceMetricsMBean {
+
+    long getEventsHandled();
+
+    long getListenerFailures();
+
+    long getWorksExecuted();
+
+    long getDocumentsScanned();
+
+    long getPropertiesWritten();
+
+    long getDocumentsSaved();
+
+    long getVersionsCreated();
+
+    long getWorkerFailures();
+
+    long getConfigLookups();
+
+    long getConfigLoads();
+
+    int getQueueDepth();
+
+    int getRunningWorks();
+
+    double getThrottleRate();
+}
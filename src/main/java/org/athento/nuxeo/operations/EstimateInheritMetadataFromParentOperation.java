@@ -0,0 +1,86 @@
+package org.athento.nuxeo.operations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.athento.nuxeo.propagation.PropagationEstimate;
+import org.athento.nuxeo.propagation.PropagationEstimator;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.automation.core.util.DocumentHelper;
+import org.nuxeo.ecm.automation.core.util.Properties;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Dry run of InheritMetadataFromParent: estimate the inheritors touched, the
+ * properties changed and the versions created by a propagation of the
+ * values of the parent, with count queries only. New values of the parent
+ * can be given to estimate an edit before saving it.
+ */
+@Operation(id = EstimateInheritMetadataFromParentOperation.ID, category = Constants.CAT_FETCH, label = "Estimate inherit metadatas from parent", description = "Estimate the inheritors, properties and versions a propagation from the parent would write, without writing")
+public class EstimateInheritMetadataFromParentOperation {
+
+    /** ID. */
+    public static final String ID = "EstimateInheritMetadataFromParent";
+
+    /**
+     * Session.
+     */
+    @Context
+    protected CoreSession session;
+
+    /**
+     * Ignore version in propagation.
+     */
+    @Param(name = "ignoreVersions", required = false)
+    protected boolean ignoreVersions = true;
+
+    /**
+     * Metadatas to propagate (comma-separated), all if it is not set.
+     */
+    @Param(name = "metadatas", required = false)
+    protected String metadatas;
+
+    /**
+     * New values of the parent, which is not saved. Only these metadatas are
+     * estimated if "metadatas" is not set.
+     */
+    @Param(name = "properties", required = false)
+    protected Properties properties;
+
+    /**
+     * Run operation.
+     *
+     * @param doc is the parent document
+     * @return JSON estimate
+     * @throws OperationException if the document is not inheritable
+     * @throws IOException on error
+     */
+    @OperationMethod
+    public Blob run(DocumentModel doc) throws OperationException, IOException {
+        if (!doc.hasFacet("inheritable")) {
+            throw new OperationException("Document " + doc.getId() + " has no facet 'inheritable'");
+        }
+        String estimated = metadatas;
+        if (properties != null && !properties.isEmpty()) {
+            DocumentHelper.setProperties(session, doc, properties);
+            if (estimated == null) {
+                estimated = InheritUtil.stringfy(new ArrayList<>(properties.keySet()));
+            }
+        }
+        PropagationEstimate estimate = PropagationEstimator.estimate(session, doc,
+                estimated != null ? InheritUtil.parseList(estimated) : null, ignoreVersions);
+        String json = new ObjectMapper().writeValueAsString(estimate);
+        return Blobs.createBlob(json, "application/json", "UTF-8");
+    }
+
+}
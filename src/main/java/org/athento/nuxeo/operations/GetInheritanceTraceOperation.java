@@ -0,0 +1,62 @@
+package org.athento.nuxeo.operations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.athento.nuxeo.propagation.PropagationTrace;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+import java.io.IOException;
+
+/**
+ * Get the last propagation records of this node as JSON, newest first.
+ * Only administrators can run it.
+ */
+@Operation(id = GetInheritanceTraceOperation.ID, category = Constants.CAT_FETCH, label = "Get inheritance trace", description = "Get last propagation records (source, target, property count, changed count, duration) of this node")
+public class GetInheritanceTraceOperation {
+
+    /** ID. */
+    public static final String ID = "GetInheritanceTrace";
+
+    /**
+     * Session.
+     */
+    @Context
+    protected CoreSession session;
+
+    /**
+     * Only records of this document as source or target.
+     */
+    @Param(name = "docId", required = false)
+    protected String docId;
+
+    /**
+     * Max number of records.
+     */
+    @Param(name = "limit", required = false)
+    protected int limit = 100;
+
+    /**
+     * Run operation.
+     *
+     * @return JSON array of records
+     * @throws IOException on error
+     * @throws OperationException if the user is not an administrator
+     */
+    @OperationMethod
+    public Blob run() throws IOException, OperationException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new OperationException("Only administrators can get the inheritance trace");
+        }
+        String json = new ObjectMapper().writeValueAsString(PropagationTrace.getRecords(docId, limit));
+        return Blobs.createBlob(json, "application/json", "UTF-8");
+    }
+
+}
@@ -11,11 +11,27 @@ import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.propagation.InheritableParentResolver;
+import org.athento.nuxeo.propagation.InheritorQuery;
+import org.athento.nuxeo.propagation.PropagationCheckpoint;
+import org.athento.nuxeo.propagation.PropagationDebouncer;
+import org.athento.nuxeo.propagation.PropagationThrottle;
+import org.athento.nuxeo.propagation.VersionCoalescing;
 import org.athento.nuxeo.utils.InheritUtil;
-import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
-import org.nuxeo.ecm.core.schema.FacetNames;
-import org.nuxeo.ecm.core.versioning.VersioningService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 @Operation(id = InheritMetadataFromParentOperation.ID, category = Constants.CAT_FETCH, label = "Inherit metadatas from parent", description = "Inherit metadatas from parent")
 public class InheritMetadataFromParentOperation {
@@ -35,6 +51,157 @@ public class InheritMetadataFromParentOperation {
     @Param(name = "ignoreVersions", required = false)
     private boolean ignoreVersions = true;
 
+    /**
+     * Changed metadatas of the parent (comma-separated). Only these metadatas
+     * are propagated if it is set.
+     */
+    @Param(name = "metadatas", required = false)
+    private String changedMetadatas;
+
+    /**
+     * Streaming mode: inheritor ids are fetched page by page and the
+     * transaction is committed every "commitSize" documents.
+     */
+    @Param(name = "streaming", required = false)
+    private boolean streaming = Boolean.parseBoolean(Framework.getProperty(
+            "inheritance.streaming.enabled", "false"));
+
+    /**
+     * Number of inheritor ids per page in streaming mode.
+     */
+    @Param(name = "pageSize", required = false)
+    private int pageSize = Integer.parseInt(Framework.getProperty(
+            "inheritance.streaming.pageSize", "500"));
+
+    /**
+     * Number of inheritors per transaction in streaming mode.
+     */
+    @Param(name = "commitSize", required = false)
+    private int commitSize = Integer.parseInt(Framework.getProperty(
+            "inheritance.streaming.commitSize", "100"));
+
+
+    /**
+     * First inheritor id (inclusive) to process, used by partitioned
+     * propagation. It implies streaming mode.
+     */
+    @Param(name = "fromId", required = false)
+    private String fromId;
+
+    /**
+     * Last inheritor id (inclusive) to process, used by partitioned
+     * propagation. It implies streaming mode.
+     */
+    @Param(name = "toId", required = false)
+    private String toId;
+
+    /**
+     * Checkpoint mode: the propagation is persisted in the parent after each
+     * chunk and continues from there when it is run again. It implies
+     * streaming mode.
+     */
+    @Param(name = "checkpoint", required = false)
+    private boolean checkpoint = Boolean.parseBoolean(Framework.getProperty(
+            "inheritance.checkpoint.enabled", "false"));
+
+    /**
+     * Scope of the inheritors: "tree" for all the inheritors under the path
+     * of the parent, "owner" for the ones whose nearest inheritable ancestor
+     * is the parent.
+     */
+    @Param(name = "scope", required = false)
+    private String scope = InheritorQuery.getDefaultScope();
+
+    /**
+     * Hierarchical mode: nested inheritable folders are propagated in the same
+     * pass, level by level, instead of by their own works. Each inheritor is
+     * only written by its nearest inheritable ancestor.
+     */
+    @Param(name = "hierarchical", required = false)
+    private boolean hierarchical = Boolean.parseBoolean(Framework.getProperty(
+            "inheritance.hierarchical.enabled", "false"));
+
+    /**
+     * Nested inheritable folders changed by the current level.
+     */
+    private final Set<String> nestedOwners = new LinkedHashSet<>();
+
+    /**
+     * Parent of the whole propagation, if it runs in several levels.
+     */
+    private String rootId;
+
+    /**
+     * If the current run is hierarchical.
+     */
+    private boolean hierarchicalRun;
+
+    /**
+     * Checkpoint of the running propagation.
+     */
+    private PropagationCheckpoint job;
+
+    /**
+     * Parent where the checkpoint is saved.
+     */
+    private DocumentModel jobParent;
+
+    /**
+     * Inheritors of the checkpointed propagation which could not be
+     * propagated.
+     */
+    private final Set<String> failedIds = new LinkedHashSet<>();
+
+    /**
+     * Inheritor not to propagate to, i.e. the origin of a sibling inheritance.
+     */
+    private String excludedId;
+
+    /**
+     * If inheritors of a moved or copied folder are re-inherited.
+     */
+    private boolean subtree;
+
+    /**
+     * Generation of the parent propagation, to stop when it is superseded.
+     */
+    private long generation = PropagationDebouncer.NO_GENERATION;
+
+    /**
+     * If last run has been stopped because it was superseded.
+     */
+    private boolean superseded;
+
+    /**
+     * Number of processed inheritors in last run.
+     */
+    private int processedCount;
+
+    /**
+     * Number of saved inheritors in last run.
+     */
+    private int savedCount;
+
+    /**
+     * Number of written properties in last run.
+     */
+    private int writtenCount;
+
+    /**
+     * Number of versions created in last run.
+     */
+    private int versionedCount;
+
+    /**
+     * Number of failed inheritors in last run.
+     */
+    private int failedCount;
+
+    /**
+     * Counters at the start of the current chunk.
+     */
+    private int[] chunkMark = new int[4];
+
     /**
      * Run operation.
      *
@@ -56,41 +223,50 @@ public class InheritMetadataFromParentOperation {
             throw new OperationException("Document " + doc.getId() + " has no facet 'inheritable'");
         }
 
-        // Find children with facet "inheritor"
-        DocumentModelList inheritorDocs = getChildren(doc, ignoreVersions);
+        if (pageSize < 1 || commitSize < 1) {
+            throw new OperationException("pageSize and commitSize must be at least 1");
+        }
 
         // Get ignored metadatas
-        String ignoredMetadatas = InheritUtil.readConfigValue(session, "metadataInheritanceConfig:ignoredMetadatas", "");
-        Boolean increaseVersion = InheritUtil.readConfigValue(session, "metadataInheritanceConfig:increaseVersion", true);
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        String ignoredMetadatas = config.getIgnoredMetadatas();
+        boolean increaseVersion = config.isIncreaseVersion();
 
-        for (DocumentModel inheritorDoc : inheritorDocs) {
-            if (InheritUtil.hasRelation(inheritorDoc)) {
-                LOG.info("Document " + inheritorDoc.getRef() + " has a relation");
-                continue;
+        resetCounters();
+        if (hierarchical && fromId == null && toId == null) {
+            runHierarchical(doc, ignoredMetadatas, increaseVersion);
+            return doc;
+        }
+        if (checkpoint && fromId == null && toId == null) {
+            runCheckpointed(doc, ignoredMetadatas, increaseVersion);
+            if (isOwnerScope() && !superseded) {
+                runUnowned(doc, ignoredMetadatas, increaseVersion);
             }
-            if (ignoreVersions && inheritorDoc.isVersion()) {
-                LOG.info("Ignore inheritor doc because is a version: " + doc.getRef());
-                continue;
+            return doc;
+        }
+        // A throttled propagation must commit, not wait in one transaction
+        if (streaming || fromId != null || toId != null || PropagationThrottle.isLimited()) {
+            runStreaming(doc, InheritorQuery.restrictToRange(InheritorQuery.getWhereClause(doc, ignoreVersions, scope),
+                    fromId, toId), null, ignoredMetadatas, increaseVersion);
+            // Partitions only have owned inheritors, see runUnowned
+            if (isOwnerScope() && fromId == null && toId == null && !superseded) {
+                runUnowned(doc, ignoredMetadatas, increaseVersion);
             }
-            // Execute operation
-            InheritMetadataOperation op = new InheritMetadataOperation();
+            return doc;
+        }
+
+        // Find children with facet "inheritor"
+        DocumentModelList inheritorDocs = getChildren(doc, ignoreVersions);
+
+        for (DocumentModel inheritorDoc : inheritorDocs) {
+            if (checkSuperseded(doc)) {
+                break;
+            }
+            processedCount++;
             try {
-                op.setSession(session);
-                op.setParamIgnoreMetadatas(ignoredMetadatas);
-                op.run(inheritorDoc);
-                // Set updateParent to false for children modification. It does document modification
-                // ignores parent "inheritable" modification.
-                inheritorDoc.setPropertyValue("inheritance:updateParent", false);
-                // Increase version
-                if (inheritorDoc.hasFacet(FacetNames.VERSIONABLE)) {
-                    if (increaseVersion) {
-                        inheritorDoc.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.MINOR);
-                    } else {
-                        inheritorDoc.putContextData(VersioningService.DISABLE_AUTO_CHECKOUT, true);
-                    }
-                }
-                session.saveDocument(inheritorDoc);
+                propagateToInheritor(doc, inheritorDoc, ignoredMetadatas, increaseVersion);
             } catch (Exception e) {
+                failedCount++;
                 LOG.error("Unable to execute inherit metadata operation", e);
             }
         }
@@ -98,22 +274,479 @@ public class InheritMetadataFromParentOperation {
         return doc;
     }
 
-    
-    
     /**
-     * Get children (query TREE mode).
+     * Re-inherit all metadatas into the inheritors of a moved or copied folder
+     * whose nearest inheritable ancestor may have changed. Each inheritor
+     * inherits from its own nearest inheritable ancestor, in streaming mode.
+     *
+     * @param folder is the moved or copied folder
+     * @return folder
+     */
+    public DocumentModel runSubtree(DocumentModel folder) {
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        resetCounters();
+        changedMetadatas = null;
+        subtree = true;
+        runStreaming(folder, InheritorQuery.getStaleWhereClause(session, folder, ignoreVersions), null,
+                config.getIgnoredMetadatas(), config.isIncreaseVersion());
+        return folder;
+    }
+
+    /**
+     * Propagate to the inheritors of a parent in owner scope without
+     * "inheritance:parentId" yet, the ones whose nearest inheritable ancestor
+     * is the parent. It is used after the owned inheritors, or by the work
+     * which schedules the partitions of the owned ones.
+     *
+     * @param doc is the parent document
+     * @return parent document
+     */
+    public DocumentModel runUnowned(DocumentModel doc) {
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        resetCounters();
+        runUnowned(doc, config.getIgnoredMetadatas(), config.isIncreaseVersion());
+        return doc;
+    }
+
+    /**
+     * Propagate to the inheritors without "inheritance:parentId" owned by a
+     * parent, in streaming mode. They are not kept in the checkpoint: all of
+     * them are checked again if the propagation is resumed.
+     *
+     * @param doc is the parent document
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void runUnowned(DocumentModel doc, String ignoredMetadatas, boolean increaseVersion) {
+        runStreaming(doc, InheritorQuery.getUnownedWhereClause(doc, ignoreVersions), null, ignoredMetadatas,
+                increaseVersion);
+    }
+
+    /**
+     * Propagate from a parent and its nested inheritable folders in one pass,
+     * top-down. The inheritors owned by the parent are propagated in
+     * streaming mode; nested inheritable folders which changed are saved
+     * without triggering their own propagation, then propagate to their owned
+     * inheritors in the next level with the same metadatas. Deep inheritors
+     * are written once, with the final values.
+     *
+     * @param doc is the parent document
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void runHierarchical(DocumentModel doc, String ignoredMetadatas, boolean increaseVersion) {
+        Deque<DocumentModel> owners = new ArrayDeque<>();
+        Set<String> visited = new HashSet<>();
+        owners.add(doc);
+        visited.add(doc.getId());
+        rootId = doc.getId();
+        hierarchicalRun = true;
+        nestedOwners.clear();
+        int ownerCount = 0;
+        try {
+            while (!owners.isEmpty() && !checkSuperseded(doc)) {
+                DocumentModel owner = owners.poll();
+                ownerCount++;
+                runStreaming(owner, InheritorQuery.getOwnedWhereClause(owner, ignoreVersions), null,
+                        ignoredMetadatas, increaseVersion);
+                runStreaming(owner, InheritorQuery.getUnownedWhereClause(owner, ignoreVersions), null,
+                        ignoredMetadatas, increaseVersion);
+                // Next owners read the values saved by this one
+                session.save();
+                for (String nestedId : nestedOwners) {
+                    if (visited.add(nestedId)) {
+                        owners.add(session.getDocument(new IdRef(nestedId)));
+                    }
+                }
+                nestedOwners.clear();
+            }
+        } finally {
+            rootId = null;
+            hierarchicalRun = false;
+            nestedOwners.clear();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Hierarchical propagation of " + doc.getId() + " through " + ownerCount
+                    + " inheritable folders, " + processedCount + " inheritors processed");
+        }
+    }
+
+    /**
+     * Propagate in streaming mode with a checkpoint in the parent. If the
+     * parent has the checkpoint of an interrupted propagation of the same
+     * metadatas and it has not been modified since, the propagation continues
+     * after the last committed inheritor. Otherwise it starts again with the
+     * metadatas of both.
+     *
+     * @param doc is the parent document
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void runCheckpointed(DocumentModel doc, String ignoredMetadatas, boolean increaseVersion) {
+        Calendar sourceModified = PropagationCheckpoint.getSourceModified(doc);
+        PropagationCheckpoint previous = PropagationCheckpoint.read(doc);
+        String afterId = null;
+        failedIds.clear();
+        List<String> retryIds = null;
+        if (previous != null && previous.canResume(changedMetadatas, sourceModified)) {
+            job = previous;
+            afterId = previous.getLastId();
+            retryIds = new ArrayList<>(previous.getFailedIds());
+            failedIds.addAll(retryIds);
+            LOG.info("Resuming propagation of " + doc.getId() + " after " + afterId + ", "
+                    + previous.getProcessed() + " inheritors already processed, " + retryIds.size()
+                    + " failed inheritors to retry");
+        } else {
+            if (previous != null) {
+                changedMetadatas = previous.merge(changedMetadatas);
+                LOG.info("Restarting interrupted propagation of " + doc.getId() + ", parent or metadatas changed");
+            }
+            job = new PropagationCheckpoint(changedMetadatas, sourceModified);
+        }
+        jobParent = job.write(session, doc);
+        try {
+            if (retryIds != null && !retryIds.isEmpty() && TransactionHelper.isTransactionActive()) {
+                retryChunk(doc, retryIds, ignoredMetadatas, increaseVersion);
+            }
+            runStreaming(doc, InheritorQuery.getWhereClause(doc, ignoreVersions, scope), afterId, ignoredMetadatas,
+                    increaseVersion);
+            if (!superseded) {
+                if (failedIds.isEmpty()) {
+                    // Finished: next run of the parent starts from the beginning
+                    PropagationCheckpoint.clear(session, jobParent);
+                } else {
+                    // Failed inheritors are retried when the propagation is resumed
+                    job.advance(job.getLastId(), processedCount, savedCount, failedCount, failedIds);
+                    jobParent = job.write(session, jobParent);
+                    LOG.error("Propagation of " + doc.getId() + " finished with " + failedIds.size()
+                            + " failed inheritors, kept in its checkpoint: " + failedIds);
+                }
+            }
+        } finally {
+            job = null;
+            jobParent = null;
+            failedIds.clear();
+        }
+    }
+
+    /**
+     * Reset counters of the last run.
+     */
+    private void resetCounters() {
+        processedCount = 0;
+        savedCount = 0;
+        writtenCount = 0;
+        versionedCount = 0;
+        failedCount = 0;
+        superseded = false;
+    }
+
+    /**
+     * Propagate metadata to inheritors loading them page by page and
+     * committing every "commitSize" documents. If an inheritor fails, its
+     * chunk is rolled back and its inheritors are propagated again one by
+     * one, each in its own transaction, so only the failing ones are lost.
+     * The chunk is also committed before a throttle wait which would keep its
+     * transaction open too long, and the wait is done outside a transaction.
+     *
+     * @param doc is the parent document
+     * @param whereClause of the inheritors
+     * @param afterId last processed inheritor, null to start from the first
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void runStreaming(DocumentModel doc, String whereClause, String afterId, String ignoredMetadatas,
+            boolean increaseVersion) {
+        boolean commit = TransactionHelper.isTransactionActive();
+        String lastId = afterId;
+        List<String> chunkIds = new ArrayList<>();
+        boolean chunkFailed = false;
+        long chunkWait = 0;
+        markChunk();
+        List<String> ids;
+        do {
+            ids = InheritorQuery.nextIds(session, whereClause, lastId, pageSize);
+            for (String id : ids) {
+                if (checkSuperseded(doc)) {
+                    break;
+                }
+                long wait = PropagationThrottle.reserve();
+                if (commit && !PropagationThrottle.canWaitInTransaction(chunkWait, wait)) {
+                    if (!chunkIds.isEmpty()) {
+                        commitChunk(doc, lastId, chunkIds, chunkFailed, ignoredMetadatas, increaseVersion);
+                        chunkIds.clear();
+                        chunkFailed = false;
+                    }
+                    TransactionHelper.commitOrRollbackTransaction();
+                    PropagationThrottle.pause(wait);
+                    TransactionHelper.startTransaction();
+                    chunkWait = 0;
+                } else {
+                    PropagationThrottle.pause(wait);
+                    chunkWait += wait;
+                }
+                lastId = id;
+                processedCount++;
+                chunkIds.add(id);
+                if (!propagateToInheritor(doc, id, ignoredMetadatas, increaseVersion)) {
+                    chunkFailed = true;
+                    if (commit) {
+                        TransactionHelper.setTransactionRollbackOnly();
+                    }
+                }
+                if (commit && chunkIds.size() >= commitSize) {
+                    commitChunk(doc, lastId, chunkIds, chunkFailed, ignoredMetadatas, increaseVersion);
+                    chunkIds.clear();
+                    chunkFailed = false;
+                    chunkWait = 0;
+                }
+            }
+        } while (ids.size() == pageSize && !superseded);
+        if (commit && !chunkIds.isEmpty()) {
+            commitChunk(doc, lastId, chunkIds, chunkFailed, ignoredMetadatas, increaseVersion);
+        }
+    }
+
+    /**
+     * Propagate metadata to an inheritor by id, logging the error.
+     *
+     * @param doc is the parent document
+     * @param id of the inheritor
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     * @return false if it failed
+     */
+    private boolean propagateToInheritor(DocumentModel doc, String id, String ignoredMetadatas,
+            boolean increaseVersion) {
+        try {
+            DocumentModel inheritorDoc = session.getDocument(new IdRef(id));
+            propagateToInheritor(doc, inheritorDoc, ignoredMetadatas, increaseVersion);
+        } catch (Exception e) {
+            LOG.error("Unable to execute inherit metadata operation for " + id, e);
+            failedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keep the counters at the start of a chunk.
+     */
+    private void markChunk() {
+        chunkMark = new int[] { savedCount, writtenCount, versionedCount, failedCount };
+    }
+
+    /**
+     * Restore the counters at the start of the chunk, after its rollback.
+     */
+    private void resetChunk() {
+        savedCount = chunkMark[0];
+        writtenCount = chunkMark[1];
+        versionedCount = chunkMark[2];
+        failedCount = chunkMark[3];
+    }
+
+    /**
+     * Save a changed inheritor, applying the versioning option (see
+     * {@link VersionCoalescing}). Saves and versions are counted once the
+     * save is done.
+     *
+     * @param inheritorDoc
+     * @param changed number of changed properties
+     * @param increaseVersion
+     */
+    private void saveInheritor(DocumentModel inheritorDoc, int changed, boolean increaseVersion) {
+        // No sibling inheritance from this save (inheritables still propagate to their inheritors,
+        // unless the propagation is hierarchical)
+        if (hierarchicalRun || !inheritorDoc.hasFacet("inheritable")) {
+            inheritorDoc.putContextData(InheritUtil.SKIP_INHERITANCE, true);
+        }
+        // Increase version, at most once per coalescing window
+        boolean versioned = VersionCoalescing.apply(inheritorDoc, increaseVersion, InheritUtil.getConfig(session));
+        long start = System.nanoTime();
+        session.saveDocument(inheritorDoc);
+        PropagationThrottle.recordSave(System.nanoTime() - start, 1);
+        savedCount++;
+        writtenCount += changed;
+        if (versioned) {
+            versionedCount++;
+        }
+        if (hierarchicalRun && inheritorDoc.hasFacet("inheritable")) {
+            nestedOwners.add(inheritorDoc.getId());
+        }
+    }
+
+    /**
+     * Check if the propagation has been superseded by a newer modification of
+     * the parent.
+     *
+     * @param doc is the parent document
+     * @return true if propagation must stop
+     */
+    private boolean checkSuperseded(DocumentModel doc) {
+        if (!superseded && PropagationDebouncer.isSuperseded(rootId != null ? rootId : doc.getId(), generation)) {
+            superseded = true;
+        }
+        return superseded;
+    }
+
+    /**
+     * Commit current chunk and start a new transaction. If the chunk failed,
+     * it is rolled back and its inheritors are propagated again one by one.
+     * The checkpoint is saved in the transaction of the chunk.
+     *
+     * @param doc is the parent document
+     * @param lastId last inheritor of the chunk
+     * @param chunkIds inheritors of the chunk
+     * @param failed if the chunk must be rolled back
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void commitChunk(DocumentModel doc, String lastId, List<String> chunkIds, boolean failed,
+            String ignoredMetadatas, boolean increaseVersion) {
+        if (failed) {
+            TransactionHelper.setTransactionRollbackOnly();
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+            resetChunk();
+            LOG.warn("Chunk of inheritors of " + doc.getId() + " has been rolled back, propagating its "
+                    + chunkIds.size() + " inheritors one by one");
+            retryChunk(doc, chunkIds, ignoredMetadatas, increaseVersion);
+        }
+        if (job != null) {
+            try {
+                job.advance(lastId, processedCount, savedCount, failedCount, failedIds);
+                jobParent = job.write(session, jobParent);
+            } catch (Exception e) {
+                // Inheritors are committed anyway, only the checkpoint is behind
+                LOG.warn("Unable to save checkpoint of " + doc.getId(), e);
+            }
+        }
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        markChunk();
+    }
+
+    /**
+     * Propagate the inheritors of a rolled back chunk, each one in its own
+     * transaction.
+     *
+     * @param doc is the parent document
+     * @param chunkIds inheritors of the chunk
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     */
+    private void retryChunk(DocumentModel doc, List<String> chunkIds, String ignoredMetadatas,
+            boolean increaseVersion) {
+        for (String id : chunkIds) {
+            if (!propagateToInheritor(doc, id, ignoredMetadatas, increaseVersion)) {
+                TransactionHelper.setTransactionRollbackOnly();
+                LOG.error("Inheritor " + id + " of " + doc.getId() + " has not been propagated");
+                if (job != null) {
+                    failedIds.add(id);
+                }
+            } else {
+                failedIds.remove(id);
+            }
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+        }
+    }
+
+    /**
+     * Propagate metadata from parent to an inheritor and save it if any
+     * value has been changed.
+     *
+     * @param doc is the parent document
+     * @param inheritorDoc
+     * @param ignoredMetadatas
+     * @param increaseVersion
+     * @return true if inheritor has been saved
+     * @throws Exception on error
+     */
+    private boolean propagateToInheritor(DocumentModel doc, DocumentModel inheritorDoc,
+            String ignoredMetadatas, boolean increaseVersion) throws Exception {
+        if (inheritorDoc.getId().equals(excludedId)) {
+            return false;
+        }
+        if (InheritUtil.hasRelation(inheritorDoc)) {
+            LOG.debug("Document " + inheritorDoc.getRef() + " has a relation");
+            return false;
+        }
+        if (ignoreVersions && inheritorDoc.isVersion()) {
+            LOG.debug("Ignore inheritor doc because is a version: " + inheritorDoc.getRef());
+            return false;
+        }
+        // Inheritor without parentId yet could belong to a nested inheritable folder
+        if ((hierarchicalRun || (!subtree && isOwnerScope())) && !isOwnedBy(doc, inheritorDoc)) {
+            return false;
+        }
+        // Folder could have been moved out of any inheritable ancestor
+        if (subtree && (inheritorDoc.getParentRef() == null
+                || InheritableParentResolver.resolve(session, inheritorDoc.getParentRef()) == null)) {
+            return false;
+        }
+        // Execute operation
+        InheritMetadataOperation op = new InheritMetadataOperation();
+        op.setSession(session);
+        op.setParamIgnoreMetadatas(ignoredMetadatas);
+        op.setParamMetadatas(changedMetadatas);
+        // Set updateParent to false for children modification. It does document modification
+        // ignores parent "inheritable" modification.
+        op.setParamUpdateParent(false);
+        op.run(inheritorDoc);
+        if (op.getChangedCount() == 0) {
+            // Nothing changed: no save, no version
+            return false;
+        }
+        saveInheritor(inheritorDoc, op.getChangedCount(), increaseVersion);
+        return true;
+    }
+
+    /**
+     * Check if only the inheritors owned by the parent are propagated.
+     *
+     * @return
+     */
+    private boolean isOwnerScope() {
+        return InheritorQuery.SCOPE_OWNER.equals(scope);
+    }
+
+    /**
+     * Check if the nearest inheritable ancestor of an inheritor is a parent.
+     *
+     * @param doc is the parent document
+     * @param inheritorDoc
+     * @return
+     */
+    private boolean isOwnedBy(DocumentModel doc, DocumentModel inheritorDoc) {
+        String parentId = inheritorDoc.hasSchema("inheritance")
+                ? (String) inheritorDoc.getPropertyValue("inheritance:parentId") : null;
+        if (parentId != null && !parentId.isEmpty()) {
+            return parentId.equals(doc.getId());
+        }
+        return inheritorDoc.getParentRef() != null
+                && doc.getId().equals(InheritableParentResolver.resolve(session, inheritorDoc.getParentRef()));
+    }
+
+    /**
+     * Get children (query in the scope of the operation).
      *
      * @param doc is the parent document
      * @param ignoreVersions to ignore child document as version
      * @return document list
      */
     private DocumentModelList getChildren(DocumentModel doc, boolean ignoreVersions) {
-        String NXQL = String.format("SELECT * FROM Document WHERE " +
-                "ecm:mixinType = 'inheritor' AND ecm:path STARTSWITH '%s' AND " +
-                "ecm:currentLifeCycleState != 'deleted' AND ecm:mixinType != 'HiddenInNavigation'" +
-                (ignoreVersions ? " AND ecm:isProxy = 0 AND ecm:isCheckedInVersion = 0" :  ""), doc.getPathAsString());
-        LOG.info("Getting children for " + doc.getRef() + " with QUERY " + NXQL);
-        return session.query(NXQL);
+        String NXQL = "SELECT * FROM Document WHERE " + InheritorQuery.getWhereClause(doc, ignoreVersions, scope);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Getting children for " + doc.getRef() + " with QUERY " + NXQL);
+        }
+        DocumentModelList children = session.query(NXQL);
+        if (isOwnerScope()) {
+            children.addAll(session.query("SELECT * FROM Document WHERE "
+                    + InheritorQuery.getUnownedWhereClause(doc, ignoreVersions)));
+        }
+        return children;
     }
 
     public void setSession(CoreSession session) {
@@ -129,6 +762,77 @@ public class InheritMetadataFromParentOperation {
         this.ignoreVersions = ignoreVersions;
     }
 
+    public void setChangedMetadatas(String changedMetadatas) {
+        this.changedMetadatas = changedMetadatas;
+    }
+
+    /**
+     * Restrict propagation to an inheritor id range (inclusive).
+     *
+     * @param fromId
+     * @param toId
+     */
+    public void setRange(String fromId, String toId) {
+        this.fromId = fromId;
+        this.toId = toId;
+    }
+
+    public void setExcludedId(String excludedId) {
+        this.excludedId = excludedId;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public boolean isSuperseded() {
+        return superseded;
+    }
+
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    public int getSavedCount() {
+        return savedCount;
+    }
+
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    public int getVersionedCount() {
+        return versionedCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public void setHierarchical(boolean hierarchical) {
+        this.hierarchical = hierarchical;
+    }
+
+    public void setCheckpoint(boolean checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setCommitSize(int commitSize) {
+        this.commitSize = commitSize;
+    }
+
     /** Log. */
     private static final Log LOG = LogFactory.getLog(InheritMetadataFromParentOperation.class);
 
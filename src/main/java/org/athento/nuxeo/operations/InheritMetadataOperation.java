@@ -10,6 +10,8 @@ import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
 import org.nuxeo.ecm.automation.core.annotations.Param;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.propagation.InheritableParentResolver;
 import org.athento.nuxeo.utils.InheritUtil;
 
 @Operation(id = InheritMetadataOperation.ID, category = Constants.CAT_FETCH, label = "Inherit metadatas", description = "Inherit metadatas from parent")
@@ -43,6 +45,19 @@ public class InheritMetadataOperation {
     @Param(name = "ignoreMetadatas", required = false)
     protected String paramIgnoreMetadatas;
 
+    /**
+     * Changed metadatas of the parent to propagate (comma-separated). All
+     * metadatas are propagated if it is not set.
+     */
+    @Param(name = "metadatas", required = false)
+    protected String paramMetadatas;
+
+    /**
+     * Value of "inheritance:updateParent" for the document.
+     */
+    @Param(name = "updateParent", required = false)
+    protected boolean paramUpdateParent = true;
+
     /**
      * Param schemas.
      */
@@ -53,6 +68,11 @@ public class InheritMetadataOperation {
      */
     private String[] ignoredMetadatas;
 
+    /**
+     * Number of changed properties in last run.
+     */
+    private int changedCount;
+
     /**
      * Run operation.
      *
@@ -84,12 +104,18 @@ public class InheritMetadataOperation {
                     + "'inheritable' for the document " + doc.getId());
         }
 
-        if (LOG.isInfoEnabled()) {
-            LOG.info("Inherit metadata for " + doc.getId() + " from Parent inheritable " + parent.getId() + ", " + parent.getName());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Inherit metadata for " + doc.getId() + " from Parent inheritable " + parent.getId() + ", " + parent.getName());
         }
 
-        // Get ignored from param metadata
-        this.ignoredMetadatas = getIgnoredMetadatasFromParam();
+        InheritanceConfig config = InheritUtil.getConfig(session);
+
+        // Get ignored from param metadata, already split if it is the configured list
+        if (this.paramIgnoreMetadatas != null && this.paramIgnoreMetadatas.equals(config.getIgnoredMetadatas())) {
+            this.ignoredMetadatas = config.getIgnoredMetadataList();
+        } else {
+            this.ignoredMetadatas = getIgnoredMetadatasFromParam();
+        }
 
         // Get schemas from param in creation mode
         this.schemas = getSchemasFromParam();
@@ -98,15 +124,20 @@ public class InheritMetadataOperation {
         }
 
         // Get property to check override
-        Boolean overrideEmpty = InheritUtil.readConfigValue(session, "metadataInheritanceConfig:overrideValues", true);
+        boolean overrideEmpty = config.isOverrideValues();
 
         // Propagate schemas from parent to child (only empty properties of document)
-        InheritUtil.propagateSchemas(session, parent, doc, this.schemas, this.ignoredMetadatas, !overrideEmpty);
+        this.changedCount = InheritUtil.propagateSchemas(config, parent, doc, this.schemas, this.ignoredMetadatas, !overrideEmpty,
+                InheritUtil.parseList(this.paramMetadatas));
 
         // Add parentId of inherit schema with parent Id
-        InheritUtil.updateProperty(doc, "inheritance:parentId", parent.getId());
-        // Refresh update parent metadata to modify inheritable always
-        InheritUtil.updateProperty(doc, "inheritance:updateParent", true);
+        if (InheritUtil.updatePropertyIfChanged(doc, "inheritance:parentId", parent.getId())) {
+            this.changedCount++;
+        }
+        // Refresh update parent metadata (true to modify inheritable always)
+        if (InheritUtil.updatePropertyIfChanged(doc, "inheritance:updateParent", paramUpdateParent)) {
+            this.changedCount++;
+        }
 
         return doc;
     }
@@ -119,16 +150,7 @@ public class InheritMetadataOperation {
      * @return
      */
     private DocumentModel getInheritableParent(CoreSession session, DocumentModel doc) {
-        if (doc == null || "Domain".equals(doc.getType())) {
-            return null;
-        } else {
-            DocumentModel parent = session.getDocument(doc.getParentRef());
-            if (parent.hasFacet("inheritable")) {
-                return parent;
-            } else {
-                return getInheritableParent(session, parent);
-            }
-        }
+        return InheritableParentResolver.getInheritableParent(session, doc);
     }
 
     /**
@@ -185,6 +207,28 @@ public class InheritMetadataOperation {
         this.paramSchemas = paramSchemas;
     }
 
+    /**
+     * Get number of properties changed by last run. Document has not to be
+     * saved if it is 0.
+     *
+     * @return
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public void setParamUpdateParent(boolean paramUpdateParent) {
+        this.paramUpdateParent = paramUpdateParent;
+    }
+
+    public String getParamMetadatas() {
+        return paramMetadatas;
+    }
+
+    public void setParamMetadatas(String paramMetadatas) {
+        this.paramMetadatas = paramMetadatas;
+    }
+
     public void setSession(CoreSession session) {
         this.session = session;
     }
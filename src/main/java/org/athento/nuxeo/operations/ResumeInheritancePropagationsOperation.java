@@ -0,0 +1,36 @@
+package org.athento.nuxeo.operations;
+
+import org.athento.nuxeo.worker.PropagationResumeComponent;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.core.api.CoreSession;
+
+/**
+ * Schedule the propagations with a stale checkpoint, i.e. interrupted by a
+ * restart, so they continue after their last committed inheritor.
+ */
+@Operation(id = ResumeInheritancePropagationsOperation.ID, category = Constants.CAT_SERVICES, label = "Resume inheritance propagations", description = "Resume the interrupted propagations from their checkpoint")
+public class ResumeInheritancePropagationsOperation {
+
+    /** ID. */
+    public static final String ID = "ResumeInheritancePropagations";
+
+    /**
+     * Session.
+     */
+    @Context
+    protected CoreSession session;
+
+    /**
+     * Run operation.
+     *
+     * @return number of scheduled propagations
+     */
+    @OperationMethod
+    public Long run() {
+        return (long) PropagationResumeComponent.resume(session);
+    }
+
+}
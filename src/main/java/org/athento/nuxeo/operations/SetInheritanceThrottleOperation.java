@@ -0,0 +1,85 @@
+package org.athento.nuxeo.operations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.athento.nuxeo.propagation.PropagationThrottle;
+import org.nuxeo.ecm.automation.OperationException;
+import org.nuxeo.ecm.automation.core.Constants;
+import org.nuxeo.ecm.automation.core.annotations.Context;
+import org.nuxeo.ecm.automation.core.annotations.Operation;
+import org.nuxeo.ecm.automation.core.annotations.OperationMethod;
+import org.nuxeo.ecm.automation.core.annotations.Param;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+import java.io.IOException;
+
+/**
+ * Change the propagation throttle of this node. Parameters which are not
+ * given are not changed, so it returns the current throttle without them.
+ * Only administrators can run it.
+ */
+@Operation(id = SetInheritanceThrottleOperation.ID, category = Constants.CAT_SERVICES, label = "Set inheritance throttle", description = "Change the propagation throttle (inheritors per second, adaptive mode) of this node and return it as JSON")
+public class SetInheritanceThrottleOperation {
+
+    /** ID. */
+    public static final String ID = "SetInheritanceThrottle";
+
+    /**
+     * Session.
+     */
+    @Context
+    protected CoreSession session;
+
+    /**
+     * Max inheritors per second, 0 for no ceiling.
+     */
+    @Param(name = "maxRate", required = false)
+    protected Double maxRate;
+
+    /**
+     * Min inheritors per second of the adaptive mode.
+     */
+    @Param(name = "minRate", required = false)
+    protected Double minRate;
+
+    /**
+     * Adaptive mode.
+     */
+    @Param(name = "adaptive", required = false)
+    protected Boolean adaptive;
+
+    /**
+     * Max average save time of an inheritor in milliseconds.
+     */
+    @Param(name = "targetLatency", required = false)
+    protected Long targetLatency;
+
+    /**
+     * Max scheduled works of the inheritance queues.
+     */
+    @Param(name = "maxQueueDepth", required = false)
+    protected Integer maxQueueDepth;
+
+    /**
+     * Run operation.
+     *
+     * @return JSON of the throttle
+     * @throws IOException on error
+     * @throws OperationException if the user is not an administrator
+     */
+    @OperationMethod
+    public Blob run() throws IOException, OperationException {
+        if (!((NuxeoPrincipal) session.getPrincipal()).isAdministrator()) {
+            throw new OperationException("Only administrators can change the inheritance throttle");
+        }
+        if (maxRate != null || minRate != null || adaptive != null || targetLatency != null
+                || maxQueueDepth != null) {
+            PropagationThrottle.configure(maxRate, minRate, adaptive, targetLatency, maxQueueDepth);
+        }
+        String json = new ObjectMapper().writeValueAsString(PropagationThrottle.getState());
+        return Blobs.createBlob(json, "application/json", "UTF-8");
+    }
+
+}
@@ -0,0 +1,168 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.cache.Cache;
+import org.nuxeo.ecm.core.cache.CacheService;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.runtime.api.Framework;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolve the nearest "inheritable" ancestor of a document.
+ *
+ * The ancestors are checked with one query and the result is cached by
+ * parent id in the "inheritance-parent" cache. It is invalidated by
+ * {@link org.athento.nuxeo.listener.InheritableParentCacheListener} when a
+ * folder is moved or removed, or when the "inheritable" facet of a folder
+ * changes.
+ */
+public final class InheritableParentResolver {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(InheritableParentResolver.class);
+
+    /** Cache name. */
+    public static final String CACHE_NAME = "inheritance-parent";
+
+    /** Cached value for parents without inheritable ancestor. */
+    private static final String NONE = "";
+
+    private InheritableParentResolver() {
+    }
+
+    /**
+     * Get inheritable parent of a document.
+     *
+     * @param session
+     * @param doc
+     * @return inheritable parent or null
+     */
+    public static DocumentModel getInheritableParent(CoreSession session, DocumentModel doc) {
+        if (doc == null || "Domain".equals(doc.getType()) || doc.getParentRef() == null) {
+            return null;
+        }
+        String parentId = resolve(session, doc.getParentRef());
+        return parentId == null ? null : session.getDocument(new IdRef(parentId));
+    }
+
+    /**
+     * Resolve the nearest inheritable ancestor from a parent folder: the folder
+     * itself if it is inheritable, or its nearest inheritable ancestor. The
+     * search stops at the first Domain.
+     *
+     * @param session
+     * @param parentRef is the parent folder of the document
+     * @return id of the inheritable ancestor or null
+     */
+    public static String resolve(CoreSession session, DocumentRef parentRef) {
+        String parentId;
+        if (parentRef instanceof IdRef) {
+            parentId = (String) parentRef.reference();
+        } else {
+            parentId = session.getDocument(parentRef).getId();
+        }
+        String key = session.getRepositoryName() + ':' + parentId;
+        Cache cache = getCache();
+        if (cache != null) {
+            try {
+                Serializable cached = cache.get(key);
+                if (cached != null) {
+                    return NONE.equals(cached) ? null : (String) cached;
+                }
+            } catch (Exception e) {
+                LOG.warn("Unable to read inheritable parent from cache", e);
+            }
+        }
+        String inheritableId = query(session, parentId);
+        if (cache != null) {
+            try {
+                cache.put(key, inheritableId == null ? NONE : inheritableId);
+            } catch (Exception e) {
+                LOG.warn("Unable to put inheritable parent into cache", e);
+            }
+        }
+        return inheritableId;
+    }
+
+    /**
+     * Find the nearest inheritable ancestor with one query over the ancestor
+     * ids.
+     *
+     * @param session
+     * @param parentId
+     * @return id or null
+     */
+    private static String query(CoreSession session, String parentId) {
+        List<String> ancestorIds = new ArrayList<>();
+        ancestorIds.add(parentId);
+        // Ordered from the direct parent to the root
+        for (DocumentRef ref : session.getParentDocumentRefs(new IdRef(parentId))) {
+            ancestorIds.add((String) ref.reference());
+        }
+        StringBuilder nxql = new StringBuilder(
+                "SELECT ecm:uuid, ecm:primaryType FROM Document WHERE ecm:uuid IN (");
+        for (int i = 0; i < ancestorIds.size(); i++) {
+            nxql.append(i > 0 ? ", " : "").append(NXQL.escapeString(ancestorIds.get(i)));
+        }
+        nxql.append(") AND (ecm:mixinType = 'inheritable' OR ecm:primaryType = 'Domain')");
+        Map<String, String> candidates = new HashMap<>();
+        IterableQueryResult result = session.queryAndFetch(nxql.toString(), NXQL.NXQL);
+        try {
+            for (Map<String, Serializable> row : result) {
+                candidates.put((String) row.get(NXQL.ECM_UUID), (String) row.get(NXQL.ECM_PRIMARYTYPE));
+            }
+        } finally {
+            result.close();
+        }
+        for (String ancestorId : ancestorIds) {
+            String type = candidates.get(ancestorId);
+            if (type == null) {
+                continue;
+            }
+            if (!"Domain".equals(type)) {
+                return ancestorId;
+            }
+            // Domain stops the search, but it can be inheritable too
+            return session.getDocument(new IdRef(ancestorId)).hasFacet("inheritable") ? ancestorId : null;
+        }
+        return null;
+    }
+
+    /**
+     * Invalidate all cached parents.
+     */
+    public static void invalidateAll() {
+        Cache cache = getCache();
+        if (cache != null) {
+            try {
+                cache.invalidateAll();
+            } catch (Exception e) {
+                LOG.warn("Unable to invalidate inheritable parents", e);
+            }
+        }
+    }
+
+    /**
+     * Get cache.
+     *
+     * @return cache or null if it is not available
+     */
+    private static Cache getCache() {
+        CacheService cacheService = Framework.getService(CacheService.class);
+        if (cacheService == null) {
+            return null;
+        }
+        return cacheService.getCache(CACHE_NAME);
+    }
+}
@@ -0,0 +1,194 @@
+package org.athento.nuxeo.propagation;
+
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.runtime.api.Framework;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries of "inheritor" documents of an "inheritable" parent.
+ */
+public final class InheritorQuery {
+
+    /** Scope of all the inheritors under the path of the parent. */
+    public static final String SCOPE_TREE = "tree";
+
+    /**
+     * Scope of the inheritors whose nearest inheritable ancestor is the
+     * parent, by "inheritance:parentId".
+     */
+    public static final String SCOPE_OWNER = "owner";
+
+    /** Max number of inheritable folders of a subtree to filter stale inheritors. */
+    private static final int MAX_INHERITABLES = 1000;
+
+    private InheritorQuery() {
+    }
+
+    /**
+     * Get where clause to find inheritors of a parent (query TREE mode).
+     *
+     * @param parent is the parent document
+     * @param ignoreVersions to ignore child document as version
+     * @return where clause
+     */
+    public static String getWhereClause(DocumentModel parent, boolean ignoreVersions) {
+        return String.format("ecm:mixinType = 'inheritor' AND ecm:path STARTSWITH %s AND "
+                + "ecm:currentLifeCycleState != 'deleted' AND ecm:mixinType != 'HiddenInNavigation'"
+                + (ignoreVersions ? " AND ecm:isProxy = 0 AND ecm:isCheckedInVersion = 0" : ""),
+                NXQL.escapeString(parent.getPathAsString()));
+    }
+
+    /**
+     * Get the configured scope ("inheritance.scope").
+     *
+     * @return scope
+     */
+    public static String getDefaultScope() {
+        return Framework.getProperty("inheritance.scope", SCOPE_TREE);
+    }
+
+    /**
+     * Get where clause to find inheritors of a parent in a scope. In
+     * {@link #SCOPE_OWNER} the inheritors without "inheritance:parentId" are
+     * not included, see {@link #getUnownedWhereClause(DocumentModel, boolean)}.
+     *
+     * @param parent is the parent document
+     * @param ignoreVersions to ignore child document as version
+     * @param scope {@link #SCOPE_TREE} or {@link #SCOPE_OWNER}
+     * @return where clause
+     */
+    public static String getWhereClause(DocumentModel parent, boolean ignoreVersions, String scope) {
+        if (SCOPE_OWNER.equals(scope)) {
+            return getOwnedWhereClause(parent, ignoreVersions);
+        }
+        return getWhereClause(parent, ignoreVersions);
+    }
+
+    /**
+     * Get where clause to find the inheritors owned by a parent: the ones
+     * whose "inheritance:parentId" is the parent, with an equality filter
+     * (see the index of the README).
+     *
+     * @param parent is the parent document
+     * @param ignoreVersions to ignore child document as version
+     * @return where clause
+     */
+    public static String getOwnedWhereClause(DocumentModel parent, boolean ignoreVersions) {
+        return String.format("ecm:mixinType = 'inheritor' AND inheritance:parentId = %s AND "
+                + "ecm:currentLifeCycleState != 'deleted' AND ecm:mixinType != 'HiddenInNavigation'"
+                + (ignoreVersions ? " AND ecm:isProxy = 0 AND ecm:isCheckedInVersion = 0" : ""),
+                NXQL.escapeString(parent.getId()));
+    }
+
+    /**
+     * Get where clause to find the inheritors without "inheritance:parentId"
+     * yet under the path of a parent, whose nearest inheritable ancestor must
+     * be checked. They are queried apart from the owned ones, so the path
+     * prefix scan is only done on them.
+     *
+     * @param parent is the parent document
+     * @param ignoreVersions to ignore child document as version
+     * @return where clause
+     */
+    public static String getUnownedWhereClause(DocumentModel parent, boolean ignoreVersions) {
+        return getWhereClause(parent, ignoreVersions) + " AND inheritance:parentId IS NULL";
+    }
+
+    /**
+     * Get where clause to find inheritors of a moved or copied folder whose
+     * nearest inheritable ancestor may have changed: the ones whose
+     * "inheritance:parentId" is not an inheritable folder of the subtree.
+     *
+     * @param session
+     * @param folder is the moved or copied folder
+     * @param ignoreVersions to ignore child document as version
+     * @return where clause
+     */
+    public static String getStaleWhereClause(CoreSession session, DocumentModel folder,
+            boolean ignoreVersions) {
+        String whereClause = getWhereClause(folder, ignoreVersions);
+        List<String> inheritableIds = new ArrayList<>();
+        if (folder.hasFacet("inheritable")) {
+            inheritableIds.add(folder.getId());
+        }
+        inheritableIds.addAll(nextIds(session, String.format("ecm:mixinType = 'inheritable' AND "
+                + "ecm:path STARTSWITH %s AND ecm:isProxy = 0 AND ecm:isCheckedInVersion = 0",
+                NXQL.escapeString(folder.getPathAsString())), null, MAX_INHERITABLES + 1));
+        if (inheritableIds.size() > MAX_INHERITABLES) {
+            // Too many inheritable folders: all inheritors are checked
+            return whereClause;
+        }
+        StringBuilder clause = new StringBuilder(whereClause);
+        clause.append(" AND (inheritance:parentId IS NULL");
+        if (!inheritableIds.isEmpty()) {
+            clause.append(" OR inheritance:parentId NOT IN (");
+            for (int i = 0; i < inheritableIds.size(); i++) {
+                clause.append(i > 0 ? ", " : "").append(NXQL.escapeString(inheritableIds.get(i)));
+            }
+            clause.append(')');
+        }
+        return clause.append(')').toString();
+    }
+
+    /**
+     * Restrict a where clause to an id range.
+     *
+     * @param whereClause
+     * @param fromId first id (inclusive), or null
+     * @param toId last id (inclusive), or null
+     * @return where clause
+     */
+    public static String restrictToRange(String whereClause, String fromId, String toId) {
+        StringBuilder clause = new StringBuilder(whereClause);
+        if (fromId != null) {
+            clause.append(" AND ecm:uuid >= ").append(NXQL.escapeString(fromId));
+        }
+        if (toId != null) {
+            clause.append(" AND ecm:uuid <= ").append(NXQL.escapeString(toId));
+        }
+        return clause.toString();
+    }
+
+    /**
+     * Get the next page of inheritor ids, ordered by id. The page is limited
+     * in the query, so the database only returns the first ids after the
+     * previous page.
+     *
+     * @param session
+     * @param whereClause of the inheritors
+     * @param afterId is the last id of the previous page (null for first page)
+     * @param pageSize at least 1
+     * @return ids
+     */
+    public static List<String> nextIds(CoreSession session, String whereClause, String afterId,
+            int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + pageSize);
+        }
+        StringBuilder nxql = new StringBuilder("SELECT ecm:uuid FROM Document WHERE ");
+        nxql.append(whereClause);
+        if (afterId != null) {
+            nxql.append(" AND ecm:uuid > ").append(NXQL.escapeString(afterId));
+        }
+        nxql.append(" ORDER BY ecm:uuid LIMIT ").append(pageSize);
+        List<String> ids = new ArrayList<>(pageSize);
+        IterableQueryResult result = session.queryAndFetch(nxql.toString(), NXQL.NXQL);
+        try {
+            Iterator<Map<String, Serializable>> it = result.iterator();
+            while (it.hasNext() && ids.size() < pageSize) {
+                ids.add((String) it.next().get(NXQL.ECM_UUID));
+            }
+        } finally {
+            result.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,285 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.versioning.VersioningService;
+import org.nuxeo.runtime.api.Framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checkpoint of a propagation from an "inheritable" parent, persisted in the
+ * "inheritancePropagation" facet of the parent in the same transaction as
+ * each chunk of inheritors. A propagation interrupted by a restart continues
+ * after the last committed inheritor.
+ *
+ * The source snapshot is "dc:modified" of the parent when the propagation
+ * started: if the parent has been modified since, the values propagated
+ * before the checkpoint are stale and the propagation starts again.
+ *
+ * Inheritors which could not be propagated are kept in the checkpoint and
+ * retried when the propagation is resumed. The checkpoint also keeps the node
+ * which runs the propagation ("repository.clustering.id") and its last
+ * update, so other nodes only resume it when it is stale.
+ */
+public final class PropagationCheckpoint {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationCheckpoint.class);
+
+    /** Facet of the parents with a running propagation. */
+    public static final String FACET = "inheritancePropagation";
+
+    /** Schema prefix. */
+    private static final String PREFIX = "inheritanceJob:";
+
+    /** Context data to keep "dc:modified" (DublinCoreListener). */
+    private static final String DISABLE_DUBLINCORE_LISTENER = "disableDublinCoreListener";
+
+    /** Last committed inheritor id, null if none. */
+    private String lastId;
+
+    /** Changed metadatas, null for all. */
+    private String changedMetadatas;
+
+    /** "dc:modified" of the parent when the propagation started. */
+    private Calendar sourceModified;
+
+    private long processed;
+
+    private long saved;
+
+    private long failed;
+
+    /** Counters when the propagation was resumed. */
+    private long resumedProcessed;
+
+    private long resumedSaved;
+
+    private long resumedFailed;
+
+    private Calendar startedAt;
+
+    /** Inheritors not propagated. */
+    private List<String> failedIds = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param changedMetadatas null for all
+     * @param sourceModified
+     */
+    public PropagationCheckpoint(String changedMetadatas, Calendar sourceModified) {
+        this.changedMetadatas = changedMetadatas;
+        this.sourceModified = sourceModified;
+        this.startedAt = Calendar.getInstance();
+    }
+
+    /**
+     * Read the checkpoint of a parent.
+     *
+     * @param parent
+     * @return checkpoint or null if there is no running propagation
+     */
+    public static PropagationCheckpoint read(DocumentModel parent) {
+        if (!parent.hasFacet(FACET)) {
+            return null;
+        }
+        Boolean all = (Boolean) parent.getPropertyValue(PREFIX + "allMetadatas");
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint(
+                Boolean.TRUE.equals(all) ? null : (String) parent.getPropertyValue(PREFIX + "changedMetadatas"),
+                (Calendar) parent.getPropertyValue(PREFIX + "sourceModified"));
+        checkpoint.lastId = (String) parent.getPropertyValue(PREFIX + "lastId");
+        checkpoint.processed = getLong(parent, "processed");
+        checkpoint.saved = getLong(parent, "saved");
+        checkpoint.failed = getLong(parent, "failed");
+        checkpoint.resumedProcessed = checkpoint.processed;
+        checkpoint.resumedSaved = checkpoint.saved;
+        checkpoint.resumedFailed = checkpoint.failed;
+        String[] failedIds = (String[]) parent.getPropertyValue(PREFIX + "failedIds");
+        if (failedIds != null) {
+            checkpoint.failedIds.addAll(Arrays.asList(failedIds));
+        }
+        Calendar startedAt = (Calendar) parent.getPropertyValue(PREFIX + "startedAt");
+        if (startedAt != null) {
+            checkpoint.startedAt = startedAt;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Get "dc:modified" of a parent, the source snapshot of its propagations.
+     *
+     * @param parent
+     * @return modification date or null
+     */
+    public static Calendar getSourceModified(DocumentModel parent) {
+        if (!parent.hasSchema("dublincore")) {
+            return null;
+        }
+        return (Calendar) parent.getPropertyValue("dc:modified");
+    }
+
+    /**
+     * Write the checkpoint into the parent. The parent is saved without
+     * version, dublincore update nor inheritance; the transaction is not
+     * committed.
+     *
+     * @param session
+     * @param parent
+     * @return saved parent
+     */
+    public DocumentModel write(CoreSession session, DocumentModel parent) {
+        if (!parent.hasFacet(FACET)) {
+            parent.addFacet(FACET);
+        }
+        parent.setPropertyValue(PREFIX + "lastId", lastId);
+        parent.setPropertyValue(PREFIX + "allMetadatas", changedMetadatas == null);
+        parent.setPropertyValue(PREFIX + "changedMetadatas", changedMetadatas);
+        parent.setPropertyValue(PREFIX + "sourceModified", sourceModified);
+        parent.setPropertyValue(PREFIX + "processed", processed);
+        parent.setPropertyValue(PREFIX + "saved", saved);
+        parent.setPropertyValue(PREFIX + "failed", failed);
+        parent.setPropertyValue(PREFIX + "startedAt", startedAt);
+        parent.setPropertyValue(PREFIX + "updatedAt", Calendar.getInstance());
+        parent.setPropertyValue(PREFIX + "owner", getNodeId());
+        parent.setPropertyValue(PREFIX + "failedIds", failedIds.toArray(new String[failedIds.size()]));
+        return save(session, parent);
+    }
+
+    /**
+     * Remove the checkpoint of a finished propagation.
+     *
+     * @param session
+     * @param parent
+     * @return saved parent
+     */
+    public static DocumentModel clear(CoreSession session, DocumentModel parent) {
+        if (!parent.hasFacet(FACET)) {
+            return parent;
+        }
+        parent.removeFacet(FACET);
+        return save(session, parent);
+    }
+
+    private static DocumentModel save(CoreSession session, DocumentModel parent) {
+        parent.putContextData(InheritUtil.SKIP_INHERITANCE, true);
+        parent.putContextData(InheritUtil.CHECKPOINT_SAVE, true);
+        parent.putContextData(DISABLE_DUBLINCORE_LISTENER, true);
+        parent.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.NONE);
+        parent.putContextData(VersioningService.DISABLE_AUTO_CHECKOUT, true);
+        return session.saveDocument(parent);
+    }
+
+    /**
+     * Get the id of this node, kept as owner of the checkpoints it writes.
+     *
+     * @return "repository.clustering.id", or empty if not set
+     */
+    public static String getNodeId() {
+        return Framework.getProperty("repository.clustering.id", "");
+    }
+
+    private static long getLong(DocumentModel parent, String field) {
+        Long value = (Long) parent.getPropertyValue(PREFIX + field);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * Check if a propagation can continue after this checkpoint: same
+     * metadatas and same source snapshot.
+     *
+     * @param changedMetadatas of the new run, null for all
+     * @param sourceModified of the parent now
+     * @return true to continue after {@link #getLastId()}
+     */
+    public boolean canResume(String changedMetadatas, Calendar sourceModified) {
+        if (changedMetadatas == null ? this.changedMetadatas != null
+                : this.changedMetadatas == null
+                        || !InheritUtil.parseList(changedMetadatas).equals(
+                                InheritUtil.parseList(this.changedMetadatas))) {
+            return false;
+        }
+        if (sourceModified == null || this.sourceModified == null) {
+            return sourceModified == this.sourceModified;
+        }
+        return sourceModified.getTimeInMillis() == this.sourceModified.getTimeInMillis();
+    }
+
+    /**
+     * Merge the metadatas of an interrupted propagation with the metadatas of
+     * a new one, which starts from the beginning.
+     *
+     * @param changedMetadatas of the new run, null for all
+     * @return merged metadatas, null for all
+     */
+    public String merge(String changedMetadatas) {
+        if (changedMetadatas == null || this.changedMetadatas == null) {
+            return null;
+        }
+        Set<String> merged = new LinkedHashSet<>(InheritUtil.parseList(this.changedMetadatas));
+        merged.addAll(InheritUtil.parseList(changedMetadatas));
+        return InheritUtil.stringfy(new ArrayList<>(merged));
+    }
+
+    /**
+     * Advance the checkpoint after a committed chunk.
+     *
+     * @param lastId last inheritor of the chunk
+     * @param processed inheritors since the propagation was (re)started
+     * @param saved inheritors since the propagation was (re)started
+     * @param failed inheritors since the propagation was (re)started
+     * @param failedIds inheritors not propagated yet, to retry on resume
+     */
+    public void advance(String lastId, long processed, long saved, long failed, Collection<String> failedIds) {
+        this.lastId = lastId;
+        this.failedIds = new ArrayList<>(failedIds);
+        this.processed = resumedProcessed + processed;
+        this.saved = resumedSaved + saved;
+        this.failed = resumedFailed + failed;
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Checkpoint at " + lastId + ", " + this.processed + " inheritors processed");
+        }
+    }
+
+    public String getLastId() {
+        return lastId;
+    }
+
+    public String getChangedMetadatas() {
+        return changedMetadatas;
+    }
+
+    /**
+     * Get inheritors which could not be propagated, to retry them.
+     *
+     * @return
+     */
+    public List<String> getFailedIds() {
+        return Collections.unmodifiableList(failedIds);
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getSaved() {
+        return saved;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+}
@@ -0,0 +1,290 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.runtime.api.Framework;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Debounce and supersede propagations of the same "inheritable" parent.
+ *
+ * Every modification of a parent increases its generation and adds its
+ * changed metadatas to the pending ones. A propagation starts when the parent
+ * has not been modified during the debounce window
+ * ("inheritance.debounce.window" in milliseconds) and no other propagation of
+ * the parent is running; otherwise its work is scheduled again later, so no
+ * thread waits. It runs with the latest generation and all the pending
+ * changed metadatas, and works of generations already completed by another
+ * run are skipped. If the parent is modified again while it is running, the
+ * run is superseded: it stops and gives its changed metadatas back to the
+ * next run, which uses the latest state of the parent.
+ *
+ * The state is kept in memory of each node; propagations running in a node
+ * which did not see the modification are neither debounced nor superseded.
+ */
+public final class PropagationDebouncer {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationDebouncer.class);
+
+    /** No generation. */
+    public static final long NO_GENERATION = -1;
+
+    /** Min delay before a work waiting for a running propagation is retried. */
+    private static final long RETRY_DELAY = 1000;
+
+    /** States by parent id. */
+    private static final ConcurrentMap<String, State> STATES = new ConcurrentHashMap<>();
+
+    /** Max number of parents kept. */
+    private static final int MAX_STATES = 10000;
+
+    private PropagationDebouncer() {
+    }
+
+    /**
+     * Parent has been modified.
+     *
+     * @param parentId
+     * @param changedMetadatas comma-separated changed metadatas, null for all
+     */
+    public static void touch(String parentId, String changedMetadatas) {
+        State state = getState(parentId);
+        synchronized (state) {
+            state.generation++;
+            state.lastTouch = System.currentTimeMillis();
+            state.addPending(changedMetadatas);
+        }
+    }
+
+    /**
+     * Begin a propagation of a parent. The ticket is done if the latest
+     * generation has already been propagated, or has a delay if the work must
+     * be scheduled again because the parent is inside the debounce window or
+     * another propagation of the parent is running.
+     *
+     * @param parentId
+     * @param changedMetadatas changed metadatas of the work, null for all
+     * @return ticket of the run
+     */
+    public static Ticket begin(String parentId, String changedMetadatas) {
+        State state = STATES.get(parentId);
+        if (state == null) {
+            return new Ticket(parentId, NO_GENERATION, changedMetadatas, 0, false);
+        }
+        synchronized (state) {
+            if (state.completed >= state.generation) {
+                return new Ticket(parentId, state.completed, null, 0, true);
+            }
+            long window = getWindow();
+            long quiet = state.lastTouch + window - System.currentTimeMillis();
+            if (state.running != NO_GENERATION) {
+                return new Ticket(parentId, state.running, null, Math.max(quiet, RETRY_DELAY), false);
+            }
+            if (quiet > 0) {
+                return new Ticket(parentId, state.generation, null, quiet, false);
+            }
+            state.running = state.generation;
+            // Take pending changed metadatas of other works and superseded runs
+            String metadatas = null;
+            if (changedMetadatas != null && !state.fullPending) {
+                Set<String> merged = new LinkedHashSet<>(InheritUtil.parseList(changedMetadatas));
+                merged.addAll(state.pending);
+                metadatas = InheritUtil.stringfy(new ArrayList<>(merged));
+            }
+            state.pending.clear();
+            state.fullPending = false;
+            return new Ticket(parentId, state.generation, metadatas, 0, false);
+        }
+    }
+
+    /**
+     * Check if a run has been superseded by a new modification of the parent.
+     *
+     * @param parentId
+     * @param generation of the run
+     * @return true if it is superseded
+     */
+    public static boolean isSuperseded(String parentId, long generation) {
+        if (generation == NO_GENERATION) {
+            return false;
+        }
+        State state = STATES.get(parentId);
+        return state != null && state.generation > generation;
+    }
+
+    /**
+     * End a run.
+     *
+     * @param ticket of the run
+     * @param completed false if the run has been superseded or has failed, so
+     *            its changed metadatas are propagated by the next run
+     */
+    public static void end(Ticket ticket, boolean completed) {
+        if (ticket.generation == NO_GENERATION || !ticket.isRun()) {
+            return;
+        }
+        State state = STATES.get(ticket.parentId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (completed) {
+                state.completed = Math.max(state.completed, ticket.generation);
+            } else {
+                state.addPending(ticket.changedMetadatas);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Propagation of " + ticket.parentId + " not completed, changed metadatas kept for the next run");
+                }
+            }
+            if (state.running == ticket.generation) {
+                state.running = NO_GENERATION;
+            }
+        }
+    }
+
+    /**
+     * Get debounce window.
+     *
+     * @return milliseconds
+     */
+    private static long getWindow() {
+        return Long.parseLong(Framework.getProperty("inheritance.debounce.window", "0"));
+    }
+
+    /**
+     * Get or create the state of a parent.
+     *
+     * @param parentId
+     * @return
+     */
+    private static State getState(String parentId) {
+        State state = STATES.get(parentId);
+        if (state == null) {
+            if (STATES.size() >= MAX_STATES) {
+                purge();
+            }
+            state = new State();
+            State previous = STATES.putIfAbsent(parentId, state);
+            if (previous != null) {
+                state = previous;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Remove idle states.
+     */
+    private static void purge() {
+        for (Map.Entry<String, State> entry : STATES.entrySet()) {
+            State state = entry.getValue();
+            synchronized (state) {
+                if (state.running == NO_GENERATION && state.completed >= state.generation) {
+                    STATES.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a parent.
+     */
+    private static final class State {
+
+        long generation;
+
+        long lastTouch;
+
+        long running = NO_GENERATION;
+
+        /** Last propagated generation. */
+        long completed = NO_GENERATION;
+
+        /** Changed metadatas not propagated yet. */
+        final Set<String> pending = new LinkedHashSet<>();
+
+        boolean fullPending;
+
+        void addPending(String changedMetadatas) {
+            if (changedMetadatas == null) {
+                fullPending = true;
+            } else {
+                pending.addAll(InheritUtil.parseList(changedMetadatas));
+            }
+        }
+    }
+
+    /**
+     * Run of a propagation.
+     */
+    public static final class Ticket {
+
+        private final String parentId;
+
+        private final long generation;
+
+        private final String changedMetadatas;
+
+        private final long delay;
+
+        private final boolean done;
+
+        Ticket(String parentId, long generation, String changedMetadatas, long delay, boolean done) {
+            this.parentId = parentId;
+            this.generation = generation;
+            this.changedMetadatas = changedMetadatas;
+            this.delay = delay;
+            this.done = done;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Changed metadatas to propagate, including the pending ones of other
+         * works and superseded runs.
+         *
+         * @return comma-separated metadatas, null for all
+         */
+        public String getChangedMetadatas() {
+            return changedMetadatas;
+        }
+
+        /**
+         * Milliseconds before the work must be scheduled again, 0 if it can
+         * run now.
+         *
+         * @return
+         */
+        public long getDelay() {
+            return delay;
+        }
+
+        /**
+         * If the generation has already been propagated by another run.
+         *
+         * @return
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * If the propagation can run now.
+         *
+         * @return
+         */
+        public boolean isRun() {
+            return !done && delay <= 0;
+        }
+    }
+}
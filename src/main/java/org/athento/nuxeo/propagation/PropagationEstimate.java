@@ -0,0 +1,160 @@
+package org.athento.nuxeo.propagation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimated impact of a propagation from an "inheritable" parent.
+ */
+public final class PropagationEstimate implements Serializable {
+
+    private static final long serialVersionUID = -3317402829185706237L;
+
+    private final String parentId;
+
+    private long inheritors;
+
+    private long touchedInheritors;
+
+    private long changedProperties;
+
+    private long maxChangedProperties;
+
+    private long versions;
+
+    private long unownedInheritors;
+
+    private final List<String> uncomparedMetadatas = new ArrayList<>();
+
+    private int queries;
+
+    private long durationMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param parentId
+     */
+    PropagationEstimate(String parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    /**
+     * Get number of inheritors of the parent.
+     *
+     * @return
+     */
+    public long getInheritors() {
+        return inheritors;
+    }
+
+    /**
+     * Get number of inheritors which would be saved.
+     *
+     * @return
+     */
+    public long getTouchedInheritors() {
+        return touchedInheritors;
+    }
+
+    /**
+     * Get number of scalar properties which would change.
+     *
+     * @return
+     */
+    public long getChangedProperties() {
+        return changedProperties;
+    }
+
+    /**
+     * Get number of properties which could change, including the ones which
+     * can not be compared by query.
+     *
+     * @return
+     */
+    public long getMaxChangedProperties() {
+        return maxChangedProperties;
+    }
+
+    /**
+     * Get number of versions which would be created.
+     *
+     * @return
+     */
+    public long getVersions() {
+        return versions;
+    }
+
+    /**
+     * Get number of documents without "inheritance:parentId" under the path
+     * of the parent, in "owner" scope: some of them may belong to a nested
+     * "inheritable" folder, so it is an upper bound of the inheritors which
+     * are not counted in {@link #getInheritors()}.
+     *
+     * @return
+     */
+    public long getUnownedInheritors() {
+        return unownedInheritors;
+    }
+
+    /**
+     * Get list, blob and complex metadatas, which can not be compared by
+     * query: all the inheritors having them are counted as touched.
+     *
+     * @return
+     */
+    public List<String> getUncomparedMetadatas() {
+        return uncomparedMetadatas;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    void addInheritors(long count) {
+        inheritors += count;
+    }
+
+    void addTouchedInheritors(long count) {
+        touchedInheritors += count;
+    }
+
+    void addChangedProperties(long count) {
+        changedProperties += count;
+    }
+
+    void addMaxChangedProperties(long count) {
+        maxChangedProperties += count;
+    }
+
+    void addVersions(long count) {
+        versions += count;
+    }
+
+    void addUnownedInheritors(long count) {
+        unownedInheritors += count;
+    }
+
+    void addUncomparedMetadata(String metadata) {
+        if (!uncomparedMetadatas.contains(metadata)) {
+            uncomparedMetadatas.add(metadata);
+        }
+    }
+
+    void addQuery() {
+        queries++;
+    }
+
+    void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+}
@@ -0,0 +1,296 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.rules.InheritanceRule;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.impl.DocumentModelImpl;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.ecm.core.schema.utils.DateParser;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimate the impact of a propagation from an "inheritable" parent with
+ * count and projection queries only, without loading the inheritors.
+ *
+ * For each document type of the inheritors, the scalar metadatas of the plan
+ * are compared with the values of the parent in the query. List, blob and
+ * complex metadatas can not be compared: inheritors with them are counted as
+ * touched. In {@link InheritorQuery#SCOPE_OWNER} the inheritors without
+ * "inheritance:parentId" may belong to a nested "inheritable" folder: they are
+ * counted apart, as an upper bound.
+ */
+public final class PropagationEstimator {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationEstimator.class);
+
+    /** Count column. */
+    private static final String COUNT = "COUNT(ecm:uuid)";
+
+    private PropagationEstimator() {
+    }
+
+    /**
+     * Estimate the propagation from a parent.
+     *
+     * @param session
+     * @param parent
+     * @param changedMetadatas to propagate, null for all
+     * @param ignoreVersions
+     * @return estimate
+     */
+    public static PropagationEstimate estimate(CoreSession session, DocumentModel parent,
+            Set<String> changedMetadatas, boolean ignoreVersions) {
+        long start = System.currentTimeMillis();
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        PropagationEstimate estimate = new PropagationEstimate(parent.getId());
+        String scope = InheritorQuery.getDefaultScope();
+        String whereClause = InheritorQuery.getWhereClause(parent, ignoreVersions, scope);
+        for (String type : getTypes(session, whereClause, estimate)) {
+            String typeClause = whereClause + " AND ecm:primaryType = " + NXQL.escapeString(type);
+            long inheritors = count(session, typeClause, estimate);
+            estimate.addInheritors(inheritors);
+            boolean overrideValues = config.isOverrideValues();
+            List<String> differences = new ArrayList<>();
+            boolean uncompared = false;
+            PropagationPlan plan = compile(parent, type, config);
+            if (plan.getRule() != null) {
+                overrideValues = plan.getRule().isOverrideValues(overrideValues);
+            }
+            for (String metadata : getEstimatedMetadatas(parent, type, plan, changedMetadatas, config)) {
+                Object value = parent.getPropertyValue(metadata);
+                String difference = getDifference(parent.getProperty(metadata), metadata, value, overrideValues);
+                if (difference == null) {
+                    uncompared = true;
+                    estimate.addUncomparedMetadata(metadata);
+                    estimate.addMaxChangedProperties(inheritors);
+                    continue;
+                }
+                long changed = count(session, typeClause + " AND " + difference, estimate);
+                estimate.addChangedProperties(changed);
+                estimate.addMaxChangedProperties(changed);
+                differences.add(difference);
+            }
+            String touchedClause;
+            if (uncompared) {
+                touchedClause = typeClause;
+                estimate.addTouchedInheritors(inheritors);
+            } else if (!differences.isEmpty()) {
+                StringBuilder clause = new StringBuilder(typeClause).append(" AND (");
+                for (int i = 0; i < differences.size(); i++) {
+                    clause.append(i > 0 ? " OR " : "").append(differences.get(i));
+                }
+                touchedClause = clause.append(')').toString();
+                estimate.addTouchedInheritors(count(session, touchedClause, estimate));
+            } else {
+                continue;
+            }
+            if (config.isIncreaseVersion()) {
+                estimate.addVersions(count(session, touchedClause + " AND ecm:mixinType = "
+                        + NXQL.escapeString(FacetNames.VERSIONABLE), estimate));
+            }
+        }
+        if (InheritorQuery.SCOPE_OWNER.equals(scope)) {
+            estimateUnowned(session, parent, changedMetadatas, ignoreVersions, config, estimate);
+        }
+        estimate.setDurationMillis(System.currentTimeMillis() - start);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Estimated propagation of " + parent.getId() + " in " + estimate.getQueries()
+                    + " queries: " + estimate.getTouchedInheritors() + " inheritors touched");
+        }
+        return estimate;
+    }
+
+    /**
+     * Count the inheritors without "inheritance:parentId" under the path of
+     * the parent. Their nearest inheritable ancestor can not be checked by
+     * query, so all their metadatas of the plan are counted as changed.
+     *
+     * @param session
+     * @param parent
+     * @param changedMetadatas to propagate, null for all
+     * @param ignoreVersions
+     * @param config
+     * @param estimate
+     */
+    private static void estimateUnowned(CoreSession session, DocumentModel parent, Set<String> changedMetadatas,
+            boolean ignoreVersions, InheritanceConfig config, PropagationEstimate estimate) {
+        String whereClause = InheritorQuery.getUnownedWhereClause(parent, ignoreVersions);
+        for (String type : getTypes(session, whereClause, estimate)) {
+            long inheritors = count(session, whereClause + " AND ecm:primaryType = " + NXQL.escapeString(type),
+                    estimate);
+            estimate.addUnownedInheritors(inheritors);
+            PropagationPlan plan = compile(parent, type, config);
+            List<String> metadatas = getEstimatedMetadatas(parent, type, plan, changedMetadatas, config);
+            estimate.addMaxChangedProperties(inheritors * metadatas.size());
+        }
+    }
+
+    /**
+     * Compile the plan of the parent for a document type of the inheritors.
+     *
+     * @param parent
+     * @param type
+     * @param config
+     * @return plan
+     */
+    private static PropagationPlan compile(DocumentModel parent, String type, InheritanceConfig config) {
+        return PropagationPlanCompiler.compile(parent, new DocumentModelImpl(type), parent.getSchemas(),
+                config.getIgnoredMetadataList());
+    }
+
+    /**
+     * Get the metadatas of the plan which would be propagated to a document
+     * type, without the empty values which are not propagated.
+     *
+     * @param parent
+     * @param type
+     * @param plan
+     * @param changedMetadatas to propagate, null for all
+     * @param config
+     * @return metadatas
+     */
+    private static List<String> getEstimatedMetadatas(DocumentModel parent, String type, PropagationPlan plan,
+            Set<String> changedMetadatas, InheritanceConfig config) {
+        boolean propagateNullValues = config.isPropagateNullValues();
+        boolean overrideValues = config.isOverrideValues();
+        InheritanceRule rule = plan.getRule();
+        if (rule != null) {
+            propagateNullValues = rule.isPropagateNullValues(propagateNullValues);
+            overrideValues = rule.isOverrideValues(overrideValues);
+        }
+        DocumentModel target = new DocumentModelImpl(type);
+        List<String> metadatas = new ArrayList<>();
+        for (PropagationPlan.Group group : plan.getGroups()) {
+            // Schemas of instance facets of the inheritors are not estimated
+            if (!parent.hasSchema(group.getSchema()) || !target.hasSchema(group.getSchema())) {
+                continue;
+            }
+            for (String metadata : group.getXpaths()) {
+                if (changedMetadatas != null && !changedMetadatas.contains(metadata)) {
+                    continue;
+                }
+                if (InheritUtil.checkEmpty(parent.getPropertyValue(metadata))
+                        && (!propagateNullValues || !overrideValues)) {
+                    continue;
+                }
+                metadatas.add(metadata);
+            }
+        }
+        return metadatas;
+    }
+
+    /**
+     * Get the NXQL condition of the inheritors whose scalar metadata is
+     * different from the value of the parent.
+     *
+     * @param property of the parent
+     * @param metadata
+     * @param value
+     * @param overrideValues false if only empty metadatas are propagated
+     * @return condition, or null if the metadata is not scalar
+     */
+    private static String getDifference(Property property, String metadata, Object value,
+            boolean overrideValues) {
+        if (!property.getType().isSimpleType()) {
+            return null;
+        }
+        if (value == null) {
+            return metadata + " IS NOT NULL";
+        }
+        String literal = toLiteral(value);
+        if (literal == null) {
+            return null;
+        }
+        if (!overrideValues) {
+            return value instanceof String ? "(" + metadata + " IS NULL OR " + metadata + " = '')"
+                    : metadata + " IS NULL";
+        }
+        return "(" + metadata + " IS NULL OR " + metadata + " <> " + literal + ")";
+    }
+
+    /**
+     * Get NXQL literal of a scalar value.
+     *
+     * @param value
+     * @return literal or null if not supported
+     */
+    private static String toLiteral(Object value) {
+        if (value instanceof String) {
+            return NXQL.escapeString((String) value);
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? "1" : "0";
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof Calendar) {
+            return "TIMESTAMP '" + DateParser.formatW3CDateTime(((Calendar) value).getTime()) + "'";
+        }
+        if (value instanceof Date) {
+            return "TIMESTAMP '" + DateParser.formatW3CDateTime((Date) value) + "'";
+        }
+        return null;
+    }
+
+    /**
+     * Get the document types of the inheritors.
+     *
+     * @param session
+     * @param whereClause
+     * @param estimate
+     * @return types
+     */
+    private static List<String> getTypes(CoreSession session, String whereClause, PropagationEstimate estimate) {
+        List<String> types = new ArrayList<>();
+        estimate.addQuery();
+        IterableQueryResult result = session.queryAndFetch("SELECT DISTINCT ecm:primaryType FROM Document WHERE "
+                + whereClause, NXQL.NXQL);
+        try {
+            for (Map<String, Serializable> row : result) {
+                types.add((String) row.get(NXQL.ECM_PRIMARYTYPE));
+            }
+        } finally {
+            result.close();
+        }
+        return types;
+    }
+
+    /**
+     * Count documents.
+     *
+     * @param session
+     * @param whereClause
+     * @param estimate
+     * @return count
+     */
+    private static long count(CoreSession session, String whereClause, PropagationEstimate estimate) {
+        estimate.addQuery();
+        IterableQueryResult result = session.queryAndFetch("SELECT " + COUNT + " FROM Document WHERE "
+                + whereClause, NXQL.NXQL);
+        try {
+            for (Map<String, Serializable> row : result) {
+                Number count = (Number) row.get(COUNT);
+                return count != null ? count.longValue() : 0;
+            }
+            return 0;
+        } finally {
+            result.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.athento.nuxeo.propagation;
+
+import org.athento.nuxeo.rules.InheritanceRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled list of metadatas (xpaths) to propagate from a source document
+ * type to a target document type, grouped by schema.
+ */
+public final class PropagationPlan {
+
+    /** Groups. */
+    private final List<Group> groups;
+
+    /** Number of xpaths. */
+    private final int size;
+
+    /** Rule of the document types, null if none. */
+    private final InheritanceRule rule;
+
+    /**
+     * Constructor.
+     *
+     * @param groups
+     * @param rule of the document types, or null
+     */
+    PropagationPlan(List<Group> groups, InheritanceRule rule) {
+        this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+        this.rule = rule;
+        int count = 0;
+        for (Group group : groups) {
+            count += group.xpaths.length;
+        }
+        this.size = count;
+    }
+
+    /**
+     * Get groups of xpaths by schema.
+     *
+     * @return
+     */
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Get the inheritance rule of the document types, with the null and
+     * override policies.
+     *
+     * @return rule or null if there is no rule
+     */
+    public InheritanceRule getRule() {
+        return rule;
+    }
+
+    /**
+     * Get number of xpaths of the plan.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Xpaths of a schema.
+     */
+    public static final class Group {
+
+        private final String schema;
+
+        private final String[] xpaths;
+
+        Group(String schema, String[] xpaths) {
+            this.schema = schema;
+            this.xpaths = xpaths;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        /**
+         * Xpaths of the schema. Returned array must not be modified.
+         *
+         * @return
+         */
+        public String[] getXpaths() {
+            return xpaths;
+        }
+    }
+
+}
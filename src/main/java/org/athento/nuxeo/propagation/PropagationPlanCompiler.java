@@ -0,0 +1,209 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.rules.InheritanceRule;
+import org.athento.nuxeo.rules.InheritanceRulesComponent;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.ecm.core.schema.types.Schema;
+import org.nuxeo.runtime.api.Framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compile and cache propagation plans by (source type, target type, config
+ * version, schemas, ignored metadatas).
+ */
+public final class PropagationPlanCompiler {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationPlanCompiler.class);
+
+    /** Max number of cached plans. */
+    private static final int MAX_PLANS = 1000;
+
+    /** Plans. */
+    private static final Map<PlanKey, PropagationPlan> PLANS = new ConcurrentHashMap<>();
+
+    private PropagationPlanCompiler() {
+    }
+
+    /**
+     * Get the propagation plan from origin to destiny.
+     *
+     * @param config
+     * @param origin
+     * @param destiny
+     * @param schemas to propagate
+     * @param ignoredMetadatas
+     * @return plan
+     */
+    public static PropagationPlan getPlan(InheritanceConfig config, DocumentModel origin,
+            DocumentModel destiny, String[] schemas, String[] ignoredMetadatas) {
+        PlanKey key = new PlanKey(origin.getType(), destiny.getType(), config.getVersion(),
+                schemas, ignoredMetadatas);
+        PropagationPlan plan = PLANS.get(key);
+        if (plan == null) {
+            plan = compile(origin, destiny, schemas, ignoredMetadatas);
+            if (PLANS.size() >= MAX_PLANS) {
+                PLANS.clear();
+            }
+            PLANS.put(key.copy(), plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Compile a plan. Schemas and xpaths are filtered by the inheritance
+     * rule of the document types, if any. Schemas are not filtered by the
+     * schemas of the documents, which can have instance facets: groups are
+     * checked against each document when the plan is applied. Fields are
+     * read from the document parts, or from the schema manager for schemas
+     * that neither document has.
+     *
+     * @param origin
+     * @param destiny
+     * @param schemas
+     * @param ignoredMetadatas
+     * @return plan
+     */
+    public static PropagationPlan compile(DocumentModel origin, DocumentModel destiny,
+            String[] schemas, String[] ignoredMetadatas) {
+        Set<String> ignored = new HashSet<>();
+        if (ignoredMetadatas != null) {
+            for (String ignoredMetadata : ignoredMetadatas) {
+                ignored.add(ignoredMetadata.trim());
+            }
+        }
+        InheritanceRule rule = InheritanceRulesComponent.getRule(origin.getType(), destiny.getType());
+        List<PropagationPlan.Group> groups = new ArrayList<>();
+        Set<String> compiled = new HashSet<>();
+        for (String schema : schemas) {
+            if (!compiled.add(schema)) {
+                continue;
+            }
+            if (!InheritUtil.isValidToPropagateSchema(schema, schemas)
+                    || (rule != null && !rule.acceptsSchema(schema))) {
+                continue;
+            }
+            Collection<Field> fields = getFields(schema, origin, destiny);
+            if (fields == null) {
+                continue;
+            }
+            List<String> xpaths = new ArrayList<>();
+            for (Field field : fields) {
+                String metadata = field.getName().getPrefixedName();
+                if (!ignored.contains(metadata)
+                        && (rule == null || rule.acceptsXpath(metadata))) {
+                    xpaths.add(metadata);
+                }
+            }
+            if (!xpaths.isEmpty()) {
+                groups.add(new PropagationPlan.Group(schema, xpaths.toArray(new String[xpaths.size()])));
+            }
+        }
+        PropagationPlan plan = new PropagationPlan(groups, rule);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compiled plan from " + origin.getType() + " to " + destiny.getType()
+                    + " with " + plan.size() + " metadatas" + (rule != null ? " by " + rule : ""));
+        }
+        return plan;
+    }
+
+    /**
+     * Get the fields of a schema.
+     *
+     * @param schema
+     * @param origin
+     * @param destiny
+     * @return fields or null if the schema is unknown
+     */
+    private static Collection<Field> getFields(String schema, DocumentModel origin, DocumentModel destiny) {
+        if (origin.hasSchema(schema)) {
+            return origin.getPart(schema).getSchema().getFields();
+        }
+        if (destiny.hasSchema(schema)) {
+            return destiny.getPart(schema).getSchema().getFields();
+        }
+        Schema definition = Framework.getService(SchemaManager.class).getSchema(schema);
+        return definition != null ? definition.getFields() : null;
+    }
+
+    /**
+     * Remove all compiled plans.
+     */
+    public static void clear() {
+        PLANS.clear();
+    }
+
+    /**
+     * Plan key.
+     */
+    private static final class PlanKey {
+
+        private final String sourceType;
+
+        private final String targetType;
+
+        private final long configVersion;
+
+        private final String[] schemas;
+
+        private final String[] ignoredMetadatas;
+
+        private final int hash;
+
+        PlanKey(String sourceType, String targetType, long configVersion, String[] schemas,
+                String[] ignoredMetadatas) {
+            this.sourceType = sourceType;
+            this.targetType = targetType;
+            this.configVersion = configVersion;
+            this.schemas = schemas;
+            this.ignoredMetadatas = ignoredMetadatas;
+            this.hash = Arrays.hashCode(new Object[] { sourceType, targetType, configVersion,
+                    Arrays.hashCode(schemas), Arrays.hashCode(ignoredMetadatas) });
+        }
+
+        /**
+         * Copy of the key not sharing arrays with the caller.
+         *
+         * @return
+         */
+        PlanKey copy() {
+            return new PlanKey(sourceType, targetType, configVersion,
+                    schemas == null ? null : schemas.clone(),
+                    ignoredMetadatas == null ? null : ignoredMetadatas.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) obj;
+            return hash == other.hash && configVersion == other.configVersion
+                    && sourceType.equals(other.sourceType) && targetType.equals(other.targetType)
+                    && Arrays.equals(schemas, other.schemas)
+                    && Arrays.equals(ignoredMetadatas, other.ignoredMetadatas);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.athento.nuxeo.propagation;
+
+import java.io.Serializable;
+
+/**
+ * Summary of the propagation from a source document to a target document.
+ */
+public final class PropagationRecord implements Serializable {
+
+    private static final long serialVersionUID = 7209364718254309112L;
+
+    private final long timestamp;
+
+    private final String sourceId;
+
+    private final String targetId;
+
+    private final int propertyCount;
+
+    private final int changedCount;
+
+    private final long durationMicros;
+
+    /**
+     * Constructor.
+     *
+     * @param sourceId
+     * @param targetId
+     * @param propertyCount number of properties checked
+     * @param changedCount number of properties changed
+     * @param durationMicros
+     */
+    public PropagationRecord(String sourceId, String targetId, int propertyCount, int changedCount,
+            long durationMicros) {
+        this.timestamp = System.currentTimeMillis();
+        this.sourceId = sourceId;
+        this.targetId = targetId;
+        this.propertyCount = propertyCount;
+        this.changedCount = changedCount;
+        this.durationMicros = durationMicros;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public int getPropertyCount() {
+        return propertyCount;
+    }
+
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "Propagation [" + sourceId + " -> " + targetId + ", properties=" + propertyCount
+                + ", changed=" + changedCount + ", duration=" + durationMicros + "us]";
+    }
+}
@@ -0,0 +1,259 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.worker.PropagateMetadataFromParentWorker;
+import org.athento.nuxeo.worker.PropagateMetadataWorker;
+import org.nuxeo.ecm.core.work.api.Work;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throttle of the propagation to inheritors, shared by all the threads of a
+ * node.
+ *
+ * "inheritance.throttle.maxRate" is the ceiling of inheritors processed per
+ * second (0, the default, for no ceiling). In adaptive mode
+ * ("inheritance.throttle.adaptive") the rate is halved, down to
+ * "inheritance.throttle.minRate", while the average save time of an inheritor
+ * is over "inheritance.throttle.targetLatency" milliseconds or the inheritance
+ * queues have more than "inheritance.throttle.maxQueueDepth" scheduled works,
+ * and it grows back to the ceiling when they are under.
+ *
+ * The waits of a chunk of inheritors are kept under
+ * "inheritance.throttle.maxChunkWait" seconds, so a low rate does not keep
+ * its transaction open until the transaction timeout.
+ *
+ * Values can be changed at runtime with the SetInheritanceThrottle operation.
+ */
+public final class PropagationThrottle {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationThrottle.class);
+
+    /** Period of the adaptive rate adjustment. */
+    private static final long ADJUST_PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    /** Weight of the last save in the average save time. */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /** Ceiling in inheritors per second, 0 for none. */
+    private static volatile double maxRate = Double.parseDouble(Framework.getProperty(
+            "inheritance.throttle.maxRate", "0"));
+
+    /** Floor of the adaptive rate. */
+    private static volatile double minRate = Double.parseDouble(Framework.getProperty(
+            "inheritance.throttle.minRate", "1"));
+
+    /** Adaptive mode. */
+    private static volatile boolean adaptive = Boolean.parseBoolean(Framework.getProperty(
+            "inheritance.throttle.adaptive", "false"));
+
+    /** Max average save time of an inheritor in milliseconds. */
+    private static volatile long targetLatency = Long.parseLong(Framework.getProperty(
+            "inheritance.throttle.targetLatency", "200"));
+
+    /** Max scheduled works of the inheritance queues. */
+    private static volatile int maxQueueDepth = Integer.parseInt(Framework.getProperty(
+            "inheritance.throttle.maxQueueDepth", "1000"));
+
+    /** Max waits of a transaction in nanos. */
+    private static final long MAX_CHUNK_WAIT = TimeUnit.SECONDS.toNanos(Long.parseLong(Framework.getProperty(
+            "inheritance.throttle.maxChunkWait", "60")));
+
+    /** Current rate. */
+    private static double rate = maxRate;
+
+    /** Next time (nanos) a permit is available. */
+    private static long nextFree = System.nanoTime();
+
+    /** Average save time of an inheritor in nanos. */
+    private static double latency;
+
+    /** Last adjustment time. */
+    private static long lastAdjust = System.nanoTime();
+
+    private PropagationThrottle() {
+    }
+
+    /**
+     * Wait for the permit to process an inheritor.
+     */
+    public static void acquire() {
+        pause(reserve());
+    }
+
+    /**
+     * Take the permit to process an inheritor, without waiting for it.
+     *
+     * @return nanos to wait with {@link #pause(long)} before processing it
+     */
+    public static long reserve() {
+        synchronized (PropagationThrottle.class) {
+            if (maxRate <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            if (adaptive && now - lastAdjust >= ADJUST_PERIOD) {
+                adjust(now);
+            }
+            double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            long wait = nextFree - now;
+            nextFree = Math.max(nextFree, now) + (long) interval;
+            return Math.max(wait, 0);
+        }
+    }
+
+    /**
+     * Wait for a reserved permit.
+     *
+     * @param nanos
+     */
+    public static void pause(long nanos) {
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Check if a transaction which already waited can wait for a permit.
+     *
+     * @param chunkWait nanos already waited in the transaction
+     * @param wait nanos to wait
+     * @return false if the transaction must be committed before waiting
+     */
+    public static boolean canWaitInTransaction(long chunkWait, long wait) {
+        return chunkWait + wait <= MAX_CHUNK_WAIT;
+    }
+
+    /**
+     * Record the time of a save.
+     *
+     * @param nanos duration of the save
+     * @param documents number of saved inheritors
+     */
+    public static void recordSave(long nanos, int documents) {
+        if (documents <= 0) {
+            return;
+        }
+        synchronized (PropagationThrottle.class) {
+            double perDocument = (double) nanos / documents;
+            latency = latency == 0 ? perDocument : latency + LATENCY_WEIGHT * (perDocument - latency);
+        }
+    }
+
+    /**
+     * Adjust the adaptive rate: multiplicative decrease when overloaded,
+     * additive increase otherwise.
+     *
+     * @param now
+     */
+    private static void adjust(long now) {
+        lastAdjust = now;
+        int depth = getQueueDepth();
+        double floor = Math.min(minRate, maxRate);
+        if (latency > TimeUnit.MILLISECONDS.toNanos(targetLatency) || depth > maxQueueDepth) {
+            double backoff = Math.max(rate / 2, floor);
+            if (backoff < rate && LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Backing off to %.1f inheritors/s (save %.1f ms, queue %d)", backoff,
+                        latency / 1000000, depth));
+            }
+            rate = backoff;
+        } else {
+            rate = Math.min(rate + Math.max(maxRate / 10, 1), maxRate);
+        }
+    }
+
+    /**
+     * Get scheduled works of the inheritance queues.
+     *
+     * @return depth or 0 if the work manager is not available
+     */
+    private static int getQueueDepth() {
+        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+        if (workManager == null) {
+            return 0;
+        }
+        return workManager.getQueueSize(workManager.getCategoryQueueId(PropagateMetadataWorker.CATEGORY),
+                Work.State.SCHEDULED)
+                + workManager.getQueueSize(workManager.getCategoryQueueId(PropagateMetadataFromParentWorker.CATEGORY),
+                        Work.State.SCHEDULED);
+    }
+
+    /**
+     * Change the throttle at runtime. Null values are not changed.
+     *
+     * @param newMaxRate ceiling in inheritors per second, 0 for none
+     * @param newMinRate floor of the adaptive rate
+     * @param newAdaptive adaptive mode
+     * @param newTargetLatency max average save time in milliseconds
+     * @param newMaxQueueDepth max scheduled works
+     */
+    public static synchronized void configure(Double newMaxRate, Double newMinRate, Boolean newAdaptive,
+            Long newTargetLatency, Integer newMaxQueueDepth) {
+        if (newMaxRate != null) {
+            maxRate = Math.max(newMaxRate, 0);
+        }
+        if (newMinRate != null) {
+            minRate = Math.max(newMinRate, 0.01);
+        }
+        if (newAdaptive != null) {
+            adaptive = newAdaptive;
+        }
+        if (newTargetLatency != null) {
+            targetLatency = newTargetLatency;
+        }
+        if (newMaxQueueDepth != null) {
+            maxQueueDepth = newMaxQueueDepth;
+        }
+        // Restart from the ceiling
+        rate = maxRate;
+        nextFree = System.nanoTime();
+        LOG.info("Inheritance throttle changed: " + getState());
+    }
+
+    /**
+     * Check if there is a ceiling. Throttled propagations run in streaming
+     * mode, so waits are spread over many transactions.
+     *
+     * @return
+     */
+    public static boolean isLimited() {
+        return maxRate > 0;
+    }
+
+    /**
+     * Get current rate in inheritors per second.
+     *
+     * @return rate, 0 if there is no ceiling
+     */
+    public static synchronized double getRate() {
+        return maxRate <= 0 ? 0 : rate;
+    }
+
+    /**
+     * Get settings and current rate.
+     *
+     * @return state
+     */
+    public static synchronized Map<String, Object> getState() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("maxRate", maxRate);
+        state.put("minRate", minRate);
+        state.put("adaptive", adaptive);
+        state.put("targetLatency", targetLatency);
+        state.put("maxQueueDepth", maxQueueDepth);
+        state.put("rate", getRate());
+        state.put("saveLatency", latency / 1000000);
+        return state;
+    }
+
+}
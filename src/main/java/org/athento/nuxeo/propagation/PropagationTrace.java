@@ -0,0 +1,83 @@
+package org.athento.nuxeo.propagation;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.runtime.api.Framework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory buffer of the last propagation records of this node
+ * ("inheritance.trace.bufferSize", 1000 by default). Records are also logged
+ * at DEBUG level of this class.
+ */
+public final class PropagationTrace {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationTrace.class);
+
+    /** Records, used as a ring. */
+    private static final PropagationRecord[] RECORDS = new PropagationRecord[Math.max(1,
+            Integer.parseInt(Framework.getProperty("inheritance.trace.bufferSize", "1000")))];
+
+    /** Next position in the ring. */
+    private static int next;
+
+    /** Number of records in the ring. */
+    private static int size;
+
+    private PropagationTrace() {
+    }
+
+    /**
+     * Record a propagation.
+     *
+     * @param record
+     */
+    public static void add(PropagationRecord record) {
+        synchronized (RECORDS) {
+            RECORDS[next] = record;
+            next = (next + 1) % RECORDS.length;
+            if (size < RECORDS.length) {
+                size++;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(record);
+        }
+    }
+
+    /**
+     * Get last records, newest first.
+     *
+     * @param docId only records with this source or target, null for all
+     * @param limit max number of records
+     * @return records
+     */
+    public static List<PropagationRecord> getRecords(String docId, int limit) {
+        List<PropagationRecord> records = new ArrayList<>();
+        synchronized (RECORDS) {
+            for (int i = 1; i <= size && records.size() < limit; i++) {
+                PropagationRecord record = RECORDS[(next - i + RECORDS.length) % RECORDS.length];
+                if (docId == null || docId.equals(record.getSourceId()) || docId.equals(record.getTargetId())) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Remove all records.
+     */
+    public static void clear() {
+        synchronized (RECORDS) {
+            for (int i = 0; i < RECORDS.length; i++) {
+                RECORDS[i] = null;
+            }
+            next = 0;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.athento.nuxeo.propagation;
+
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.ecm.core.versioning.VersioningService;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versioning of the documents saved by the inheritance. With "increaseVersion"
+ * every save creates a MINOR version, unless the coalescing window
+ * ("versionWindow" minutes) or count ("versionChanges") is set: then a
+ * version is only created when the window has elapsed since the last
+ * inheritance version, or after the given number of inheritance saves, and
+ * the other saves only update the working copy.
+ *
+ * The last version date and the pending saves are kept in
+ * "inheritance:lastVersionDate" and "inheritance:pendingChanges", so
+ * documents without the "inheritance" schema are always versioned.
+ */
+public final class VersionCoalescing {
+
+    private VersionCoalescing() {
+    }
+
+    /**
+     * Set the versioning option of a document before it is saved by the
+     * inheritance.
+     *
+     * @param doc
+     * @param increaseVersion
+     * @param config
+     * @return true if a version will be created
+     */
+    public static boolean apply(DocumentModel doc, boolean increaseVersion, InheritanceConfig config) {
+        if (!doc.hasFacet(FacetNames.VERSIONABLE)) {
+            return false;
+        }
+        if (increaseVersion && mustCreateVersion(doc, config)) {
+            doc.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.MINOR);
+            return true;
+        }
+        doc.putContextData(VersioningService.DISABLE_AUTO_CHECKOUT, true);
+        return false;
+    }
+
+    /**
+     * Check if the save must create a version, and update the coalescing
+     * state of the document.
+     *
+     * @param doc
+     * @param config
+     * @return
+     */
+    private static boolean mustCreateVersion(DocumentModel doc, InheritanceConfig config) {
+        long window = config.getVersionWindow();
+        long changes = config.getVersionChanges();
+        if ((window <= 0 && changes <= 0) || !doc.hasSchema("inheritance")) {
+            return true;
+        }
+        Calendar now = Calendar.getInstance();
+        Calendar lastVersion = (Calendar) doc.getPropertyValue("inheritance:lastVersionDate");
+        Long pendingValue = (Long) doc.getPropertyValue("inheritance:pendingChanges");
+        long pending = (pendingValue != null ? pendingValue : 0) + 1;
+        boolean version = lastVersion == null
+                || (window > 0 && now.getTimeInMillis() - lastVersion.getTimeInMillis()
+                        >= TimeUnit.MINUTES.toMillis(window))
+                || (changes > 0 && pending >= changes);
+        if (version) {
+            doc.setPropertyValue("inheritance:lastVersionDate", now);
+            doc.setPropertyValue("inheritance:pendingChanges", 0L);
+        } else {
+            doc.setPropertyValue("inheritance:pendingChanges", pending);
+        }
+        return version;
+    }
+}
@@ -0,0 +1,153 @@
+package org.athento.nuxeo.rules;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable inheritance rule compiled from a {@link InheritanceRuleDescriptor}:
+ * schema sets and one pattern for the included and excluded xpaths.
+ */
+public final class InheritanceRule {
+
+    /** Any document type. */
+    public static final String ANY_TYPE = "*";
+
+    private final String id;
+
+    private final String sourceType;
+
+    private final String targetType;
+
+    private final Set<String> includedSchemas;
+
+    private final Set<String> excludedSchemas;
+
+    /** Null to include all xpaths. */
+    private final Pattern includedXpaths;
+
+    /** Null to exclude none. */
+    private final Pattern excludedXpaths;
+
+    private final Boolean propagateNullValues;
+
+    private final Boolean overrideValues;
+
+    /**
+     * Compile a rule.
+     *
+     * @param descriptor
+     */
+    public InheritanceRule(InheritanceRuleDescriptor descriptor) {
+        this.id = descriptor.getId();
+        this.sourceType = descriptor.getSourceType();
+        this.targetType = descriptor.getTargetType();
+        this.includedSchemas = toSet(descriptor.getIncludedSchemas());
+        this.excludedSchemas = toSet(descriptor.getExcludedSchemas());
+        this.includedXpaths = compile(descriptor.getIncludedXpaths());
+        this.excludedXpaths = compile(descriptor.getExcludedXpaths());
+        this.propagateNullValues = descriptor.getPropagateNullValues();
+        this.overrideValues = descriptor.getOverrideValues();
+    }
+
+    private static Set<String> toSet(Collection<String> values) {
+        Set<String> set = new HashSet<>();
+        for (String value : values) {
+            if (value != null && !value.trim().isEmpty()) {
+                set.add(value.trim());
+            }
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Compile xpath patterns, where "*" matches any characters, into one
+     * pattern.
+     *
+     * @param patterns
+     * @return pattern or null if there is no pattern
+     */
+    private static Pattern compile(Collection<String> patterns) {
+        StringBuilder regex = new StringBuilder();
+        for (String pattern : patterns) {
+            if (pattern == null || pattern.trim().isEmpty()) {
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            String[] parts = pattern.trim().split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (!parts[i].isEmpty()) {
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+        }
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Check if a schema is propagated.
+     *
+     * @param schema
+     * @return
+     */
+    public boolean acceptsSchema(String schema) {
+        return !excludedSchemas.contains(schema) && (includedSchemas.isEmpty() || includedSchemas.contains(schema));
+    }
+
+    /**
+     * Check if a metadata is propagated.
+     *
+     * @param xpath
+     * @return
+     */
+    public boolean acceptsXpath(String xpath) {
+        if (excludedXpaths != null && excludedXpaths.matcher(xpath).matches()) {
+            return false;
+        }
+        return includedXpaths == null || includedXpaths.matcher(xpath).matches();
+    }
+
+    /**
+     * Get null-propagation policy.
+     *
+     * @param defaultValue of the config
+     * @return
+     */
+    public boolean isPropagateNullValues(boolean defaultValue) {
+        return propagateNullValues != null ? propagateNullValues : defaultValue;
+    }
+
+    /**
+     * Get override policy: false to propagate only to empty metadatas.
+     *
+     * @param defaultValue of the config
+     * @return
+     */
+    public boolean isOverrideValues(boolean defaultValue) {
+        return overrideValues != null ? overrideValues : defaultValue;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    @Override
+    public String toString() {
+        return "InheritanceRule[" + id + ", " + sourceType + " -> " + targetType + "]";
+    }
+}
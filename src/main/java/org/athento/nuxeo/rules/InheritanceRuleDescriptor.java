@@ -0,0 +1,94 @@
+package org.athento.nuxeo.rules;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inheritance rule contribution for a source (parent) and target (inheritor)
+ * document type. "*" matches any type. A contribution with the same id
+ * replaces the previous one.
+ */
+@XObject("rule")
+public class InheritanceRuleDescriptor {
+
+    @XNode("@id")
+    protected String id;
+
+    @XNode("@sourceType")
+    protected String sourceType = InheritanceRule.ANY_TYPE;
+
+    @XNode("@targetType")
+    protected String targetType = InheritanceRule.ANY_TYPE;
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    /**
+     * Only these schemas are propagated, all if empty. Schemas ignored by
+     * default (see InheritUtil.DEFAULT_IGNORED_SCHEMAS) are never propagated.
+     */
+    @XNodeList(value = "includedSchemas/schema", type = ArrayList.class, componentType = String.class)
+    protected List<String> includedSchemas = new ArrayList<>();
+
+    @XNodeList(value = "excludedSchemas/schema", type = ArrayList.class, componentType = String.class)
+    protected List<String> excludedSchemas = new ArrayList<>();
+
+    /** Only xpaths matching these patterns are propagated, all if empty. */
+    @XNodeList(value = "includedXpaths/xpath", type = ArrayList.class, componentType = String.class)
+    protected List<String> includedXpaths = new ArrayList<>();
+
+    @XNodeList(value = "excludedXpaths/xpath", type = ArrayList.class, componentType = String.class)
+    protected List<String> excludedXpaths = new ArrayList<>();
+
+    /** Null-propagation policy, ExtendedConfig value if not set. */
+    @XNode("propagateNullValues")
+    protected Boolean propagateNullValues;
+
+    /** Override policy, ExtendedConfig value if not set. */
+    @XNode("overrideValues")
+    protected Boolean overrideValues;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public String getTargetType() {
+        return targetType;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<String> getIncludedSchemas() {
+        return includedSchemas;
+    }
+
+    public List<String> getExcludedSchemas() {
+        return excludedSchemas;
+    }
+
+    public List<String> getIncludedXpaths() {
+        return includedXpaths;
+    }
+
+    public List<String> getExcludedXpaths() {
+        return excludedXpaths;
+    }
+
+    public Boolean getPropagateNullValues() {
+        return propagateNullValues;
+    }
+
+    public Boolean getOverrideValues() {
+        return overrideValues;
+    }
+}
@@ -0,0 +1,160 @@
+package org.athento.nuxeo.rules;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.propagation.PropagationPlanCompiler;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Inheritance rules by source (parent) and target (inheritor) document type,
+ * contributed to the "rules" extension point and compiled when the
+ * application starts. A lookup returns the most specific enabled rule:
+ * source and target type, source type and "*", "*" and target type, then
+ * "*" and "*".
+ */
+public class InheritanceRulesComponent extends DefaultComponent {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(InheritanceRulesComponent.class);
+
+    /** Extension point. */
+    public static final String RULES_XP = "rules";
+
+    /** No rule, to cache lookups without rule. */
+    private static final InheritanceRule NO_RULE = new InheritanceRule(new InheritanceRuleDescriptor());
+
+    /** Compiled rules by "sourceType/targetType". */
+    private static volatile Map<String, InheritanceRule> rules = Collections.emptyMap();
+
+    /** Resolved rules by "sourceType/targetType". */
+    private static final ConcurrentMap<String, InheritanceRule> RESOLVED = new ConcurrentHashMap<>();
+
+    /** Contributions by id. */
+    private final Map<String, InheritanceRuleDescriptor> descriptors = new LinkedHashMap<>();
+
+    /** If the application has started. */
+    private boolean started;
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (RULES_XP.equals(extensionPoint)) {
+            InheritanceRuleDescriptor descriptor = (InheritanceRuleDescriptor) contribution;
+            synchronized (descriptors) {
+                descriptors.remove(descriptor.getId());
+                descriptors.put(descriptor.getId(), descriptor);
+                if (started) {
+                    compile();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (RULES_XP.equals(extensionPoint)) {
+            InheritanceRuleDescriptor descriptor = (InheritanceRuleDescriptor) contribution;
+            synchronized (descriptors) {
+                if (descriptors.get(descriptor.getId()) == descriptor) {
+                    descriptors.remove(descriptor.getId());
+                }
+                if (started) {
+                    compile();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        synchronized (descriptors) {
+            started = true;
+            compile();
+        }
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        synchronized (descriptors) {
+            started = false;
+            descriptors.clear();
+            rules = Collections.emptyMap();
+            RESOLVED.clear();
+            PropagationPlanCompiler.clear();
+        }
+    }
+
+    /**
+     * Compile the enabled contributions.
+     */
+    private void compile() {
+        Map<String, InheritanceRule> compiled = new HashMap<>();
+        for (InheritanceRuleDescriptor descriptor : descriptors.values()) {
+            if (!descriptor.isEnabled()) {
+                continue;
+            }
+            InheritanceRule rule = new InheritanceRule(descriptor);
+            InheritanceRule previous = compiled.put(getKey(rule.getSourceType(), rule.getTargetType()), rule);
+            if (previous != null) {
+                LOG.warn(rule + " replaces " + previous + " for the same document types");
+            }
+        }
+        rules = Collections.unmodifiableMap(compiled);
+        RESOLVED.clear();
+        // Plans were compiled with the previous rules
+        PropagationPlanCompiler.clear();
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Compiled " + compiled.size() + " inheritance rules");
+        }
+    }
+
+    /**
+     * Get the rule from a source to a target document type.
+     *
+     * @param sourceType
+     * @param targetType
+     * @return rule or null if there is no rule
+     */
+    public static InheritanceRule getRule(String sourceType, String targetType) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        String key = getKey(sourceType, targetType);
+        InheritanceRule rule = RESOLVED.get(key);
+        if (rule == null) {
+            Map<String, InheritanceRule> current = rules;
+            rule = resolve(current, sourceType, targetType);
+            // Not cached if rules have been compiled again meanwhile
+            if (current == rules) {
+                RESOLVED.put(key, rule);
+            }
+        }
+        return rule == NO_RULE ? null : rule;
+    }
+
+    private static InheritanceRule resolve(Map<String, InheritanceRule> current, String sourceType,
+            String targetType) {
+        String[] keys = { getKey(sourceType, targetType), getKey(sourceType, InheritanceRule.ANY_TYPE),
+                getKey(InheritanceRule.ANY_TYPE, targetType),
+                getKey(InheritanceRule.ANY_TYPE, InheritanceRule.ANY_TYPE) };
+        for (String key : keys) {
+            InheritanceRule rule = current.get(key);
+            if (rule != null) {
+                return rule;
+            }
+        }
+        return NO_RULE;
+    }
+
+    private static String getKey(String sourceType, String targetType) {
+        return sourceType + '/' + targetType;
+    }
+}
@@ -2,6 +2,13 @@ package org.athento.nuxeo.utils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.config.InheritanceConfigCache;
+import org.athento.nuxeo.propagation.PropagationPlan;
+import org.athento.nuxeo.propagation.PropagationPlanCompiler;
+import org.athento.nuxeo.propagation.PropagationRecord;
+import org.athento.nuxeo.propagation.PropagationTrace;
+import org.athento.nuxeo.rules.InheritanceRule;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.OperationException;
@@ -9,6 +16,9 @@ import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.PathRef;
 import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.model.impl.ComplexProperty;
+import org.nuxeo.ecm.core.api.model.impl.ListProperty;
+import org.nuxeo.ecm.core.api.model.impl.primitives.BlobProperty;
 import org.nuxeo.runtime.api.Framework;
 
 import java.util.*;
@@ -21,6 +31,24 @@ public final class InheritUtil {
     /** Extended config path. */
     public static final String CONFIG_PATH = "/ExtendedConfig";
 
+    /**
+     * Context data of documents saved by the inheritance itself: their
+     * modification must not trigger another inheritance.
+     */
+    public static final String SKIP_INHERITANCE = "skipInheritance";
+
+    /**
+     * Context data of a folder whose "inheritable" facet has been added or
+     * removed by the save, set before it is saved.
+     */
+    public static final String INHERITABLE_FACET_CHANGED = "inheritableFacetChanged";
+
+    /**
+     * Context data of a parent saved to write the checkpoint of its
+     * propagation: its changed metadatas must be kept as they are.
+     */
+    public static final String CHECKPOINT_SAVE = "inheritanceCheckpointSave";
+
     /** Log. */
     private static final Log LOG = LogFactory.getLog(InheritUtil.class);
 
@@ -28,7 +56,13 @@ public final class InheritUtil {
      * IGNORED SCHEMAS.
      */
     public static String[] DEFAULT_IGNORED_SCHEMAS = { "dublincore", "common",
-        "uid", "file", "files", "athentoRelation", "inherit", "inheritance" };
+        "uid", "file", "files", "athentoRelation", "inherit", "inheritance", "inheritanceJob" };
+
+    /**
+     * IGNORED SCHEMAS as set.
+     */
+    private static final Set<String> DEFAULT_IGNORED_SCHEMA_SET = new HashSet<>(
+        Arrays.asList(DEFAULT_IGNORED_SCHEMAS));
 
     /**
      * Propagate schemas.
@@ -38,43 +72,90 @@ public final class InheritUtil {
      * @param schemas
      * @param ignoredMetadatas
      * @param onlyEmpty if propagate only to empty properties
+     * @return number of changed properties
      */
-    public static void propagateSchemas(CoreSession session,
+    public static int propagateSchemas(CoreSession session,
         DocumentModel origin, DocumentModel destiny, String[] schemas,
         String[] ignoredMetadatas, boolean onlyEmpty) {
-        if (LOG.isInfoEnabled()) {
-            LOG.info("Propagating from " + origin.getRef() + " to " + destiny.getRef());
+        return propagateSchemas(getConfig(session), origin, destiny, schemas, ignoredMetadatas, onlyEmpty);
+    }
+
+    /**
+     * Propagate schemas with a given config.
+     *
+     * @param config
+     * @param origin
+     * @param destiny
+     * @param schemas
+     * @param ignoredMetadatas
+     * @param onlyEmpty if propagate only to empty properties
+     * @return number of changed properties
+     */
+    public static int propagateSchemas(InheritanceConfig config,
+        DocumentModel origin, DocumentModel destiny, String[] schemas,
+        String[] ignoredMetadatas, boolean onlyEmpty) {
+        return propagateSchemas(config, origin, destiny, schemas, ignoredMetadatas, onlyEmpty, null);
+    }
+
+    /**
+     * Propagate schemas with a given config, only for the changed metadatas.
+     *
+     * @param config
+     * @param origin
+     * @param destiny
+     * @param schemas
+     * @param ignoredMetadatas
+     * @param onlyEmpty if propagate only to empty properties
+     * @param changedMetadatas metadatas to propagate, null to propagate all
+     * @return number of changed properties
+     */
+    public static int propagateSchemas(InheritanceConfig config,
+        DocumentModel origin, DocumentModel destiny, String[] schemas,
+        String[] ignoredMetadatas, boolean onlyEmpty, Set<String> changedMetadatas) {
+        long start = System.nanoTime();
+        // Per-property detail only in trace mode
+        boolean trace = LOG.isTraceEnabled();
+        int checked = 0;
+        int changed = 0;
+        // Walk the compiled plan for these document types
+        PropagationPlan plan = PropagationPlanCompiler.getPlan(config, origin, destiny, schemas,
+                ignoredMetadatas);
+        // Null and override policies of the rule of these document types
+        boolean propagateNullValues = config.isPropagateNullValues();
+        InheritanceRule rule = plan.getRule();
+        if (rule != null) {
+            propagateNullValues = rule.isPropagateNullValues(propagateNullValues);
+            onlyEmpty = !rule.isOverrideValues(!onlyEmpty);
         }
-        // Propagate schemas
-        for (String schema : schemas) {
-            if (documentsHaveSchema(origin, destiny, schema)) {
-                if (isValidToPropagateSchema(schema, schemas)) {
-                    // Get properties from valid schema to propagate to child
-                    Map<String, Object> properties = origin
-                        .getProperties(schema);
-                    for (Map.Entry<String, Object> entry : properties
-                        .entrySet()) {
-                        String metadata = entry.getKey();
-                        LOG.info("Metadata to propagate " + metadata);
-                        if (!metadataMustBeIgnored(metadata, ignoredMetadatas)) {
-                            Object value = origin.getPropertyValue(metadata);
-                            LOG.info("Value to propagate " + value);
-                            // From #AT-921
-                            if (allowToSaveValue(session, metadata, value)) {
-                                // Update property of destiny document
-                                Object propValue = destiny.getPropertyValue(metadata);
-                                if (LOG.isInfoEnabled()) {
-                                    LOG.info("Propagating metadata " + metadata + ": " + propValue + " with " + value);
-                                }
-                                if (!onlyEmpty || checkEmpty(propValue)) {
-                                    updateProperty(destiny, metadata, value);
-                                }
-                            }
+        for (PropagationPlan.Group group : plan.getGroups()) {
+            // Instance facets could differ between documents of the same type
+            if (!documentsHaveSchema(origin, destiny, group.getSchema())) {
+                continue;
+            }
+            for (String metadata : group.getXpaths()) {
+                if (changedMetadatas != null && !changedMetadatas.contains(metadata)) {
+                    continue;
+                }
+                checked++;
+                Object value = origin.getPropertyValue(metadata);
+                // From #AT-921
+                if (allowToSaveValue(propagateNullValues, metadata, value)) {
+                    // Update property of destiny document
+                    if (onlyEmpty && !checkEmpty(destiny.getPropertyValue(metadata))) {
+                        if (trace) {
+                            LOG.trace("Not empty metadata " + metadata + " of " + destiny.getId());
                         }
+                        continue;
+                    }
+                    if (updatePropertyIfChanged(destiny, metadata, value)) {
+                        changed++;
                     }
                 }
             }
         }
+        PropagationTrace.add(new PropagationRecord(origin.getId(), destiny.getId(), checked, changed,
+                (System.nanoTime() - start) / 1000));
+        return changed;
     }
 
     /**
@@ -83,7 +164,7 @@ public final class InheritUtil {
      * @param metadataValue
      * @return
      */
-    private static boolean checkEmpty(Object metadataValue) {
+    public static boolean checkEmpty(Object metadataValue) {
         if (metadataValue == null) {
             return true;
         }
@@ -106,14 +187,16 @@ public final class InheritUtil {
      * @param ignoredMetadatas
      */
     public static void propagateMetadatas(CoreSession session, DocumentModel origin, DocumentModel destiny, String[] metadatas, String[] ignoredMetadatas) {
+        InheritanceConfig config = getConfig(session);
         List<String> updatedMetadatas = new ArrayList<String>();
         for (String metadata : metadatas) {
             if (!metadataMustBeIgnored(metadata, ignoredMetadatas)) {
                 Object value = origin.getPropertyValue(metadata);
-                if (allowToSaveValue(session, metadata, value)) {
+                if (allowToSaveValue(config.isPropagateNullValues(), metadata, value)) {
                     // Update property of destiny document
-                    updateProperty(destiny, metadata, value);
-                    updatedMetadatas.add(metadata);
+                    if (updatePropertyIfChanged(destiny, metadata, value)) {
+                        updatedMetadatas.add(metadata);
+                    }
                 }
             }
         }
@@ -123,28 +206,39 @@ public final class InheritUtil {
      * Check if null value of metadata must be propagated using Extendedconfig property.
      * <i>From #AT-921</i>
      *
-     * @param session
+     * @param propagateNullValues
      * @param value
      * @return
      */
-    private static boolean allowToSaveValue(CoreSession session,
+    private static boolean allowToSaveValue(boolean propagateNullValues,
         String metadata, Object value) {
         boolean retVal;
         if (!checkEmpty(value)) {
             retVal = true;
         } else {
-            retVal = InheritUtil.readConfigValue(session,
-                "metadataInheritanceConfig:propagateNullValues", false);
+            retVal = propagateNullValues;
         }
-        if (LOG.isDebugEnabled()) {
-            LOG.debug(" ... allow to save value [" + value + "] on metadata ["
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(" ... allow to save value [" + value + "] on metadata ["
                 + metadata + "]: " + retVal);
         }
         return retVal;
     }
 
     /**
-     * Read a extended config value.
+     * Get the inheritance config snapshot of the session repository. It is
+     * cached until ExtendedConfig document changes.
+     *
+     * @param session
+     * @return config
+     */
+    public static InheritanceConfig getConfig(CoreSession session) {
+        return InheritanceConfigCache.get(session);
+    }
+
+    /**
+     * Read a extended config value. It always reads the ExtendedConfig
+     * document, use {@link #getConfig(CoreSession)} for inheritance config.
      *
      * @param session
      * @param key
@@ -188,13 +282,65 @@ public final class InheritUtil {
      */
     public static DocumentModel updateProperty(DocumentModel doc, String xpath,
         Object value) {
-        Property p = doc.getProperty(xpath);
-        if (LOG.isInfoEnabled()) {
-            LOG.info(" updating doc [" + doc.getPathAsString()
+        updatePropertyIfChanged(doc, xpath, value);
+        return doc;
+    }
+
+    /**
+     * Update property only if its current value is different.
+     *
+     * @param doc
+     * @param xpath
+     * @param value
+     * @return true if property has been changed
+     */
+    public static boolean updatePropertyIfChanged(DocumentModel doc, String xpath,
+        Object value) {
+        if (!updateIfChanged(doc.getProperty(xpath), value)) {
+            return false;
+        }
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(" updating doc [" + doc.getId()
                 + "] property [" + xpath + "] with value [" + value + "]");
         }
+        return true;
+    }
+
+    /**
+     * Update property only where its value is different. Complex values and
+     * lists of the same size are updated item by item, so their blobs are
+     * only set if their binary (digest) or its filename or mime-type changed.
+     * A blob is set as the reference to the binary of the origin, which is not
+     * copied.
+     *
+     * @param p
+     * @param value
+     * @return true if property has been changed
+     */
+    static boolean updateIfChanged(Property p, Object value) {
+        Object current = p.getValue();
+        if (PropertyValues.valueEquals(current, value)) {
+            return false;
+        }
+        if (value instanceof Map && current instanceof Map && p instanceof ComplexProperty
+                && !(p instanceof BlobProperty)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.keySet().equals(((Map<?, ?>) current).keySet())) {
+                for (Property child : ((ComplexProperty) p).getChildren()) {
+                    updateIfChanged(child, map.get(child.getName()));
+                }
+                return true;
+            }
+        } else if (value instanceof List && p instanceof ListProperty
+                && ((List<?>) value).size() == ((ListProperty) p).size()) {
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                updateIfChanged(((ListProperty) p).get(i), list.get(i));
+            }
+            return true;
+        }
         p.setValue(value);
-        return doc;
+        return true;
     }
 
     /**
@@ -232,7 +378,7 @@ public final class InheritUtil {
         if (schema == null) {
             return true;
         }
-        return Arrays.asList(DEFAULT_IGNORED_SCHEMAS).contains(schema);
+        return DEFAULT_IGNORED_SCHEMA_SET.contains(schema);
     }
 
     /**
@@ -286,6 +432,26 @@ public final class InheritUtil {
         return o;
     }
 
+    /**
+     * Parse comma-separated values.
+     *
+     * @param value
+     * @return trimmed values or null if value is null
+     */
+    public static Set<String> parseList(String value) {
+        if (value == null) {
+            return null;
+        }
+        Set<String> values = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) {
+                values.add(trimmed);
+            }
+        }
+        return values;
+    }
+
     /**
      * Transform string list to comma-separated values.
      *
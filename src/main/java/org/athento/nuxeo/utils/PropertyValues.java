@@ -0,0 +1,160 @@
+package org.athento.nuxeo.utils;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+
+import java.lang.reflect.Array;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Comparison of property values: scalars, arrays, lists, complex values and
+ * blobs.
+ */
+public final class PropertyValues {
+
+    private PropertyValues() {
+    }
+
+    /**
+     * Check if two property values are equal. Lists and complex values are
+     * compared deeply, dates by time and blobs without reading its content.
+     *
+     * @param value1
+     * @param value2
+     * @return true if values are equal
+     */
+    public static boolean valueEquals(Object value1, Object value2) {
+        if (value1 == value2) {
+            return true;
+        }
+        if (value1 == null || value2 == null) {
+            return false;
+        }
+        if (value1 instanceof Calendar && value2 instanceof Calendar) {
+            return ((Calendar) value1).getTimeInMillis() == ((Calendar) value2).getTimeInMillis();
+        }
+        if (value1 instanceof Date && value2 instanceof Date) {
+            return ((Date) value1).getTime() == ((Date) value2).getTime();
+        }
+        if (value1 instanceof Blob && value2 instanceof Blob) {
+            return blobEquals((Blob) value1, (Blob) value2);
+        }
+        if (value1.getClass().isArray() && value2.getClass().isArray()) {
+            return arrayEquals(value1, value2);
+        }
+        if (value1 instanceof List && value2 instanceof List) {
+            return listEquals((List<?>) value1, (List<?>) value2);
+        }
+        if (value1 instanceof Map && value2 instanceof Map) {
+            return mapEquals((Map<?, ?>) value1, (Map<?, ?>) value2);
+        }
+        return value1.equals(value2);
+    }
+
+    /**
+     * Compare arrays.
+     *
+     * @param array1
+     * @param array2
+     * @return
+     */
+    private static boolean arrayEquals(Object array1, Object array2) {
+        int length = Array.getLength(array1);
+        if (length != Array.getLength(array2)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!valueEquals(Array.get(array1, i), Array.get(array2, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare lists.
+     *
+     * @param list1
+     * @param list2
+     * @return
+     */
+    private static boolean listEquals(List<?> list1, List<?> list2) {
+        if (list1.size() != list2.size()) {
+            return false;
+        }
+        Iterator<?> it1 = list1.iterator();
+        Iterator<?> it2 = list2.iterator();
+        while (it1.hasNext()) {
+            if (!valueEquals(it1.next(), it2.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare complex values.
+     *
+     * @param map1
+     * @param map2
+     * @return
+     */
+    private static boolean mapEquals(Map<?, ?> map1, Map<?, ?> map2) {
+        if (map1.size() != map2.size()) {
+            return false;
+        }
+        for (Map.Entry<?, ?> entry : map1.entrySet()) {
+            if (!map2.containsKey(entry.getKey())) {
+                return false;
+            }
+            if (!valueEquals(entry.getValue(), map2.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare blobs by binary, filename and mime-type.
+     *
+     * @param blob1
+     * @param blob2
+     * @return
+     */
+    static boolean blobEquals(Blob blob1, Blob blob2) {
+        return sameBinary(blob1, blob2) && valueEquals(blob1.getFilename(), blob2.getFilename())
+                && valueEquals(blob1.getMimeType(), blob2.getMimeType());
+    }
+
+    /**
+     * Check if two blobs reference the same binary, by digest or by key of
+     * the binary store, without reading their content. Blobs without digest
+     * nor key are only equal to themselves.
+     *
+     * @param blob1
+     * @param blob2
+     * @return
+     */
+    public static boolean sameBinary(Blob blob1, Blob blob2) {
+        String key1 = getBinaryKey(blob1);
+        return key1 != null && key1.equals(getBinaryKey(blob2));
+    }
+
+    /**
+     * Get digest of a blob, or its key if it is stored without digest.
+     *
+     * @param blob
+     * @return digest, key or null
+     */
+    private static String getBinaryKey(Blob blob) {
+        String digest = blob.getDigest();
+        if (digest == null && blob instanceof ManagedBlob) {
+            return ((ManagedBlob) blob).getKey();
+        }
+        return digest;
+    }
+}
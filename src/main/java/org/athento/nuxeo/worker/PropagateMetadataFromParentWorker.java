@@ -3,20 +3,30 @@
  */
 package org.athento.nuxeo.worker;
 
+import com.codahale.metrics.Timer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
 import org.athento.nuxeo.operations.InheritMetadataFromParentOperation;
 import org.athento.nuxeo.operations.InheritMetadataOperation;
+import org.athento.nuxeo.propagation.InheritorQuery;
+import org.athento.nuxeo.propagation.PropagationDebouncer;
 import org.athento.nuxeo.utils.InheritUtil;
 import org.nuxeo.ecm.core.api.ClientException;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Propagate metadata from parent worker.
@@ -29,13 +39,45 @@ public class PropagateMetadataFromParentWorker extends AbstractWork {
 	private static Log LOG = LogFactory.getLog(PropagateMetadataFromParentWorker.class);
 
 	/**
-	 * Category.
+	 * Category of the bulk queue, so big propagations do not delay the
+	 * inheritance of new documents.
 	 */
-	private static final String CATEGORY = "inheritance";
+	public static final String CATEGORY = "inheritanceBulk";
+
+	/** Timer of the debounced works. */
+	private static final ScheduledExecutorService RESCHEDULER = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "inheritance-debounce");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
 	/** Ignored versions. */
 	private boolean ignoreVersions;
 
+	/**
+	 * Inheritors per partition work, 0 to propagate in this work.
+	 */
+	private int partitionSize = Integer.parseInt(Framework.getProperty("inheritance.partition.size", "0"));
+
+	/**
+	 * Checkpoint the propagation in the parent, so it is resumed after a
+	 * restart. Partitions are not used with checkpoints.
+	 */
+	private boolean checkpoint = Boolean.parseBoolean(Framework.getProperty("inheritance.checkpoint.enabled", "false"));
+
+	/**
+	 * Propagate nested inheritable folders in the same pass. Partitions are
+	 * not used in hierarchical mode.
+	 */
+	private boolean hierarchical = Boolean.parseBoolean(Framework.getProperty("inheritance.hierarchical.enabled", "false"));
+
+	/** Changed metadatas of the parent, null to propagate all. */
+	private final String changedMetadatas;
+
 	/**
 	 * Update documents for the worker.
 	 */
@@ -48,8 +90,22 @@ public class PropagateMetadataFromParentWorker extends AbstractWork {
 	 * @param docId
 	 */
 	public PropagateMetadataFromParentWorker(String repositoryName, String docId) {
-		super(repositoryName + ':' + docId + ":parentInheritance");
+		this(repositoryName, docId, null);
+	}
+
+	/**
+	 * Constructor to propagate only changed metadatas. Works with different
+	 * changes are not deduplicated.
+	 *
+	 * @param repositoryName
+	 * @param docId
+	 * @param changedMetadatas comma-separated changed metadatas, null for all
+	 */
+	public PropagateMetadataFromParentWorker(String repositoryName, String docId, String changedMetadatas) {
+		super(repositoryName + ':' + docId + ":parentInheritance"
+				+ (changedMetadatas != null ? ":" + Integer.toHexString(changedMetadatas.hashCode()) : ""));
 		setDocument(repositoryName, docId);
+		this.changedMetadatas = changedMetadatas;
 	}
 
 	@Override
@@ -67,31 +123,161 @@ public class PropagateMetadataFromParentWorker extends AbstractWork {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Starting inherit parent worker...");
         }
-		openSystemSession();
-		if (!session.exists(new IdRef(docId))) {
-			setStatus("Nothing to process");
+		// Debounce window and running propagation of the same parent
+		PropagationDebouncer.Ticket ticket = PropagationDebouncer.begin(docId, changedMetadatas);
+		if (ticket.isDone()) {
+			setStatus("Already propagated");
 			return;
 		}
-		float percent = 0;
-		setProgress(new Progress(percent));
+		if (!ticket.isRun()) {
+			reschedule(ticket.getDelay());
+			setStatus("Rescheduled");
+			return;
+		}
+		// Only propagations which run are timed
+		Timer.Context timer = InheritanceMetrics.timeWorker(this);
+		boolean superseded = false;
+		boolean completed = false;
+		try {
+			openSystemSession();
+			if (!session.exists(new IdRef(docId))) {
+				setStatus("Nothing to process");
+				return;
+			}
+			float percent = 0;
+			setProgress(new Progress(percent));
+			if (partitionSize > 0 && !checkpoint && !hierarchical) {
+				schedulePartitions(ticket.getChangedMetadatas());
+				completed = true;
+				return;
+			}
+			try {
+				setStatus("Propagating metadata from parent");
+				// Execute operation
+				InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
+				op.setIgnoreVersions(ignoreVersions);
+				op.setChangedMetadatas(ticket.getChangedMetadatas());
+				op.setGeneration(ticket.getGeneration());
+				op.setCheckpoint(checkpoint);
+				op.setHierarchical(hierarchical);
+				op.setSession(session);
+				DocumentModel doc = session.getDocument(new IdRef(docId));
+				op.run(doc);
+				superseded = op.isSuperseded();
+				completed = !superseded;
+				countMetrics(getClass(), op);
+			} catch (Exception e) {
+				InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
+				LOG.error("Unable to execute propagate metadata from parent", e);
+			} finally {
+				commitOrRollbackTransaction();
+				startTransaction();
+				setProgress(new Progress(100));
+				setStatus(superseded ? "Superseded" : "Finished");
+			}
+		} finally {
+			PropagationDebouncer.end(ticket, completed);
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Schedule this propagation again after a delay, without keeping a thread
+	 * of the queue. Delayed works are kept in memory of the node.
+	 *
+	 * @param delay in milliseconds
+	 */
+	protected void reschedule(long delay) {
+		final PropagateMetadataFromParentWorker work = new PropagateMetadataFromParentWorker(repositoryName, docId,
+				changedMetadatas);
+		work.ignoreVersions = ignoreVersions;
+		work.partitionSize = partitionSize;
+		work.checkpoint = checkpoint;
+		work.hierarchical = hierarchical;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Propagation of " + docId + " rescheduled in " + delay + " ms");
+		}
+		RESCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Framework.getLocalService(WorkManager.class).schedule(work,
+							WorkManager.Scheduling.IF_NOT_SCHEDULED);
+				} catch (RuntimeException e) {
+					LOG.error("Unable to reschedule propagation of " + work.docId, e);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Count metrics of a propagation.
+	 *
+	 * @param worker class
+	 * @param op executed operation
+	 */
+	static void countMetrics(Class<?> worker, InheritMetadataFromParentOperation op) {
+		InheritanceMetrics.count(worker, InheritanceMetrics.DOCUMENTS_SCANNED, op.getProcessedCount());
+		InheritanceMetrics.count(worker, InheritanceMetrics.PROPERTIES_WRITTEN, op.getWrittenCount());
+		InheritanceMetrics.count(worker, InheritanceMetrics.DOCUMENTS_SAVED, op.getSavedCount());
+		InheritanceMetrics.count(worker, InheritanceMetrics.VERSIONS_CREATED, op.getVersionedCount());
+		InheritanceMetrics.count(worker, InheritanceMetrics.FAILURES, op.getFailedCount());
+	}
+
+	/**
+	 * Split inheritors in partitions of "partitionSize" ids and schedule a
+	 * work for each one, so they are processed by all threads of the queue.
+	 *
+	 * @param changedMetadatas to propagate, null for all
+	 */
+	protected void schedulePartitions(String changedMetadatas) {
+		setStatus("Scheduling partitions");
+		WorkManager workManager = Framework.getLocalService(WorkManager.class);
+		PropagationGroup group = PropagationGroup.create(getId() + ":" + System.currentTimeMillis(), docId);
 		try {
-			setStatus("Propagating metadata from parent");
-			// Execute operation
-			InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
-			op.setIgnoreVersions(ignoreVersions);
-			op.setSession(session);
 			DocumentModel doc = session.getDocument(new IdRef(docId));
-			op.run(doc);
+			String scope = InheritorQuery.getDefaultScope();
+			String whereClause = InheritorQuery.getWhereClause(doc, ignoreVersions, scope);
+			String lastId = null;
+			List<String> ids;
+			do {
+				ids = InheritorQuery.nextIds(session, whereClause, lastId, partitionSize);
+				if (ids.isEmpty()) {
+					break;
+				}
+				lastId = ids.get(ids.size() - 1);
+				PropagateMetadataPartitionWorker partition = new PropagateMetadataPartitionWorker(repositoryName,
+						docId, group.getId(), ids.get(0), lastId, changedMetadatas);
+				partition.setIgnoreVersions(ignoreVersions);
+				group.addPartition();
+				workManager.schedule(partition, WorkManager.Scheduling.ENQUEUE, true);
+			} while (ids.size() == partitionSize);
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Scheduled " + group.getPartitions() + " partitions of " + docId + " inheritors");
+			}
+			if (InheritorQuery.SCOPE_OWNER.equals(scope)) {
+				// Inheritors without parentId are not in the partitions
+				InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
+				op.setIgnoreVersions(ignoreVersions);
+				op.setChangedMetadatas(changedMetadatas);
+				op.setSession(session);
+				op.runUnowned(doc);
+				countMetrics(getClass(), op);
+			}
 		} catch (Exception e) {
-			LOG.error("Unable to execute propagate metadata from parent", e);
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
+			LOG.error("Unable to schedule propagation partitions", e);
 		} finally {
-			commitOrRollbackTransaction();
-			startTransaction();
+			group.setScheduled();
 			setProgress(new Progress(100));
-			setStatus("Finished");
+			setStatus("Partitions scheduled");
 		}
 	}
 
+	public String getChangedMetadatas() {
+		return changedMetadatas;
+	}
+
 	public boolean isIgnoreVersions() {
 		return ignoreVersions;
 	}
@@ -100,4 +286,16 @@ public class PropagateMetadataFromParentWorker extends AbstractWork {
 		this.ignoreVersions = ignoreVersions;
 	}
 
+	public void setHierarchical(boolean hierarchical) {
+		this.hierarchical = hierarchical;
+	}
+
+	public void setCheckpoint(boolean checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	public void setPartitionSize(int partitionSize) {
+		this.partitionSize = partitionSize;
+	}
+
 }
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package org.athento.nuxeo.worker;
+
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.operations.InheritMetadataFromParentOperation;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Propagate metadata from parent to a partition (id range) of its inheritors.
+ */
+public class PropagateMetadataPartitionWorker extends AbstractWork {
+
+	private static final long serialVersionUID = -2289765023361928515L;
+
+	/** Log. */
+	private static Log LOG = LogFactory.getLog(PropagateMetadataPartitionWorker.class);
+
+	/**
+	 * Category of the bulk queue, so big propagations do not delay the
+	 * inheritance of new documents.
+	 */
+	public static final String CATEGORY = "inheritanceBulk";
+
+	/** Group id. */
+	private final String groupId;
+
+	/** First inheritor id (inclusive). */
+	private final String fromId;
+
+	/** Last inheritor id (inclusive). */
+	private final String toId;
+
+	/** Changed metadatas of the parent, null to propagate all. */
+	private final String changedMetadatas;
+
+	/** Ignored versions. */
+	private boolean ignoreVersions;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param repositoryName
+	 * @param docId is the parent id
+	 * @param groupId
+	 * @param fromId
+	 * @param toId
+	 * @param changedMetadatas
+	 */
+	public PropagateMetadataPartitionWorker(String repositoryName, String docId, String groupId,
+			String fromId, String toId, String changedMetadatas) {
+		super(groupId + ":" + fromId);
+		setDocument(repositoryName, docId);
+		this.groupId = groupId;
+		this.fromId = fromId;
+		this.toId = toId;
+		this.changedMetadatas = changedMetadatas;
+	}
+
+	@Override
+	public String getTitle() {
+		return getCategory() + " " + fromId + ".." + toId;
+	}
+
+	@Override
+	public String getCategory() {
+		return CATEGORY;
+	}
+
+	@Override
+	public void work() {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Starting inherit partition worker " + fromId + ".." + toId);
+		}
+		Timer.Context timer = InheritanceMetrics.timeWorker(this);
+		openSystemSession();
+		PropagationGroup group = PropagationGroup.get(groupId);
+		if (!session.exists(new IdRef(docId))) {
+			timer.stop();
+			setStatus("Nothing to process");
+			if (group != null) {
+				group.partitionDone(0, 0, false);
+			}
+			return;
+		}
+		setProgress(new Progress(0));
+		InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
+		boolean failed = false;
+		try {
+			setStatus("Propagating metadata from parent");
+			op.setIgnoreVersions(ignoreVersions);
+			op.setChangedMetadatas(changedMetadatas);
+			op.setRange(fromId, toId);
+			op.setSession(session);
+			DocumentModel doc = session.getDocument(new IdRef(docId));
+			op.run(doc);
+			PropagateMetadataFromParentWorker.countMetrics(getClass(), op);
+		} catch (Exception e) {
+			failed = true;
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
+			LOG.error("Unable to execute propagate metadata partition " + fromId + ".." + toId, e);
+		} finally {
+			commitOrRollbackTransaction();
+			startTransaction();
+			if (group != null) {
+				group.partitionDone(op.getProcessedCount(), op.getSavedCount(), failed);
+			}
+			timer.stop();
+			setProgress(new Progress(100));
+			setStatus("Finished");
+		}
+	}
+
+	public void setIgnoreVersions(boolean ignoreVersions) {
+		this.ignoreVersions = ignoreVersions;
+	}
+
+}
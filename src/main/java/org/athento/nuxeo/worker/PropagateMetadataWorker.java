@@ -3,9 +3,12 @@
  */
 package org.athento.nuxeo.worker;
 
+import com.codahale.metrics.Timer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
 import org.athento.nuxeo.operations.InheritMetadataOperation;
+import org.athento.nuxeo.propagation.InheritableParentResolver;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.core.util.Properties;
@@ -30,9 +33,9 @@ public class PropagateMetadataWorker extends AbstractWork {
 	private static Log LOG = LogFactory.getLog(PropagateMetadataWorker.class);
 
 	/**
-	 * Category.
+	 * Category of the interactive queue.
 	 */
-	private static final String CATEGORY = "inheritance";
+	public static final String CATEGORY = "inheritance";
 
 	/** Ignored metadatas. */
 	private String ignoredMetadatas;
@@ -62,9 +65,11 @@ public class PropagateMetadataWorker extends AbstractWork {
         if (LOG.isInfoEnabled()) {
             LOG.info("Starting inherit worker...");
         }
+		Timer.Context timer = InheritanceMetrics.timeWorker(this);
 		openSystemSession();
 		if (!session.exists(new IdRef(docId))) {
             LOG.trace("Document " + docId + " is not found for inheritance.");
+			timer.stop();
 			setStatus("Nothing to process");
 			return;
 		}
@@ -79,13 +84,26 @@ public class PropagateMetadataWorker extends AbstractWork {
 				op.setParamIgnoreMetadatas(ignoredMetadatas);
 				// FIX: Add only schemas here if it is necessary
 				DocumentModel doc = session.getDocument(new IdRef(docId));
+				if (InheritableParentResolver.getInheritableParent(session, doc) == null) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("No inheritable parent for " + docId);
+					}
+					return;
+				}
 				op.run(doc);
-                // Save document
-                session.saveDocument(doc);
+				InheritanceMetrics.count(getClass(), InheritanceMetrics.DOCUMENTS_SCANNED, 1);
+                // Save document only if it has been changed
+                if (op.getChangedCount() > 0) {
+                    session.saveDocument(doc);
+                    InheritanceMetrics.count(getClass(), InheritanceMetrics.PROPERTIES_WRITTEN, op.getChangedCount());
+                    InheritanceMetrics.count(getClass(), InheritanceMetrics.DOCUMENTS_SAVED, 1);
+                }
 			} catch (Exception e) {
+				InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
 				LOG.error("Problems executing inherit worker", e);
 			}
 		} finally {
+			timer.stop();
 			commitOrRollbackTransaction();
 			startTransaction();
 			setProgress(new Progress(100));
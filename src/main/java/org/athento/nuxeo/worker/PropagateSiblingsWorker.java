@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.athento.nuxeo.worker;
+
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.operations.InheritMetadataFromParentOperation;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.ecm.core.versioning.VersioningService;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Sibling inheritance: propagate the metadata of a modified inheritor (the
+ * origin) to its "inheritable" parent, then from the parent to the other
+ * inheritors in one pass which excludes the origin.
+ *
+ * The parent is saved with {@link InheritUtil#SKIP_INHERITANCE}, so its
+ * modification does not schedule another propagation, and inheritors saved
+ * by the pass do not trigger sibling inheritance again.
+ */
+public class PropagateSiblingsWorker extends AbstractWork {
+
+	private static final long serialVersionUID = -7215540913622915031L;
+
+	/** Log. */
+	private static Log LOG = LogFactory.getLog(PropagateSiblingsWorker.class);
+
+	/** Inheritable parent id. */
+	private final String parentId;
+
+	/**
+	 * Constructor. Works of the same origin are coalesced while they are
+	 * scheduled.
+	 *
+	 * @param repositoryName
+	 * @param originId is the modified inheritor
+	 * @param parentId is its inheritable parent
+	 */
+	public PropagateSiblingsWorker(String repositoryName, String originId, String parentId) {
+		super(repositoryName + ':' + originId + ":siblingInheritance");
+		setDocument(repositoryName, originId);
+		this.parentId = parentId;
+	}
+
+	@Override
+	public String getTitle() {
+		return getCategory() + " siblings of " + docId;
+	}
+
+	@Override
+	public String getCategory() {
+		return PropagateMetadataFromParentWorker.CATEGORY;
+	}
+
+	@Override
+	public void work() {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Starting sibling inheritance worker from " + docId);
+		}
+		Timer.Context timer = InheritanceMetrics.timeWorker(this);
+		openSystemSession();
+		try {
+			if (!session.exists(new IdRef(docId)) || !session.exists(new IdRef(parentId))) {
+				setStatus("Nothing to process");
+				return;
+			}
+			setProgress(new Progress(0));
+			setStatus("Propagating metadata to parent");
+			InheritanceConfig config = InheritUtil.getConfig(session);
+			DocumentModel origin = session.getDocument(new IdRef(docId));
+			DocumentModel parent = session.getDocument(new IdRef(parentId));
+			int changed = InheritUtil.propagateSchemas(config, origin, parent, parent.getSchemas(),
+					config.getIgnoredMetadataList(), false);
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.DOCUMENTS_SCANNED, 1);
+			if (changed == 0) {
+				// Parent and siblings have already the values of the origin
+				setStatus("Nothing to propagate");
+				return;
+			}
+			// Increase version
+			boolean versioned = parent.hasFacet(FacetNames.VERSIONABLE);
+			if (versioned) {
+				parent.putContextData(VersioningService.VERSIONING_OPTION, VersioningOption.MINOR);
+			}
+			parent.putContextData(InheritUtil.SKIP_INHERITANCE, true);
+			parent = session.saveDocument(parent);
+			if (versioned) {
+				InheritanceMetrics.count(getClass(), InheritanceMetrics.VERSIONS_CREATED, 1);
+			}
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.PROPERTIES_WRITTEN, changed);
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.DOCUMENTS_SAVED, 1);
+
+			setStatus("Propagating metadata to siblings");
+			// Metadatas changed on parent, kept by InheritableChangesListener
+			String changedMetadatas = null;
+			if (parent.hasSchema("inheritance")) {
+				changedMetadatas = (String) parent.getPropertyValue("inheritance:lastUpdatedMetadatas");
+			}
+			InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
+			op.setSession(session);
+			op.setIgnoreVersions(config.isIgnoreVersions());
+			op.setChangedMetadatas(changedMetadatas);
+			op.setExcludedId(docId);
+			op.run(parent);
+			PropagateMetadataFromParentWorker.countMetrics(getClass(), op);
+		} catch (Exception e) {
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
+			LOG.error("Unable to execute sibling inheritance from " + docId, e);
+		} finally {
+			commitOrRollbackTransaction();
+			startTransaction();
+			timer.stop();
+			setProgress(new Progress(100));
+			setStatus("Finished");
+		}
+	}
+
+	public String getParentId() {
+		return parentId;
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package org.athento.nuxeo.worker;
+
+import com.codahale.metrics.Timer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.metrics.InheritanceMetrics;
+import org.athento.nuxeo.operations.InheritMetadataFromParentOperation;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.work.AbstractWork;
+
+/**
+ * Re-inherit the inheritors of a moved or copied folder whose nearest
+ * "inheritable" ancestor may have changed, in one streaming work.
+ */
+public class PropagateSubtreeWorker extends AbstractWork {
+
+	private static final long serialVersionUID = -3120746510295184460L;
+
+	/** Log. */
+	private static Log LOG = LogFactory.getLog(PropagateSubtreeWorker.class);
+
+	/**
+	 * Constructor.
+	 *
+	 * @param repositoryName
+	 * @param docId is the moved or copied folder
+	 */
+	public PropagateSubtreeWorker(String repositoryName, String docId) {
+		super(repositoryName + ':' + docId + ":subtreeInheritance");
+		setDocument(repositoryName, docId);
+	}
+
+	@Override
+	public String getTitle() {
+		return getCategory() + " subtree of " + docId;
+	}
+
+	@Override
+	public String getCategory() {
+		return PropagateMetadataFromParentWorker.CATEGORY;
+	}
+
+	@Override
+	public void work() {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Starting subtree inheritance worker for " + docId);
+		}
+		Timer.Context timer = InheritanceMetrics.timeWorker(this);
+		openSystemSession();
+		if (!session.exists(new IdRef(docId))) {
+			timer.stop();
+			setStatus("Nothing to process");
+			return;
+		}
+		setProgress(new Progress(0));
+		try {
+			setStatus("Inheriting metadata into subtree");
+			InheritMetadataFromParentOperation op = new InheritMetadataFromParentOperation();
+			op.setSession(session);
+			op.setIgnoreVersions(InheritUtil.getConfig(session).isIgnoreVersions());
+			DocumentModel folder = session.getDocument(new IdRef(docId));
+			op.runSubtree(folder);
+			PropagateMetadataFromParentWorker.countMetrics(getClass(), op);
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Subtree of " + docId + " re-inherited: " + op.getSavedCount() + " of "
+						+ op.getProcessedCount() + " inheritors changed");
+			}
+		} catch (Exception e) {
+			InheritanceMetrics.count(getClass(), InheritanceMetrics.FAILURES, 1);
+			LOG.error("Unable to re-inherit subtree of " + docId, e);
+		} finally {
+			commitOrRollbackTransaction();
+			startTransaction();
+			timer.stop();
+			setProgress(new Progress(100));
+			setStatus("Finished");
+		}
+	}
+
+}
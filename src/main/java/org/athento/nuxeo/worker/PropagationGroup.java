@@ -0,0 +1,196 @@
+package org.athento.nuxeo.worker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a partitioned propagation: the partition works of a parent
+ * propagation are tracked as a group.
+ *
+ * Groups are kept in memory of the node which scheduled them, so the
+ * tracking is single-node only: partitions executed in other nodes of a
+ * cluster are not counted and their group never completes. It is only used
+ * for logging; groups not completed after a day are discarded.
+ */
+public final class PropagationGroup {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationGroup.class);
+
+    /** Groups not completed after this time are discarded. */
+    private static final long MAX_AGE = 24 * 3600 * 1000L;
+
+    /** Groups by id. */
+    private static final Map<String, PropagationGroup> GROUPS = new ConcurrentHashMap<>();
+
+    private final String id;
+
+    private final String parentId;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicInteger partitions = new AtomicInteger();
+
+    private final AtomicInteger completedPartitions = new AtomicInteger();
+
+    private final AtomicInteger failedPartitions = new AtomicInteger();
+
+    private final AtomicInteger processedDocuments = new AtomicInteger();
+
+    private final AtomicInteger savedDocuments = new AtomicInteger();
+
+    private volatile boolean scheduled;
+
+    private PropagationGroup(String id, String parentId) {
+        this.id = id;
+        this.parentId = parentId;
+    }
+
+    /**
+     * Create a new group.
+     *
+     * @param id of the group
+     * @param parentId is the inheritable parent
+     * @return group
+     */
+    public static PropagationGroup create(String id, String parentId) {
+        purge();
+        PropagationGroup group = new PropagationGroup(id, parentId);
+        GROUPS.put(id, group);
+        return group;
+    }
+
+    /**
+     * Get a group.
+     *
+     * @param id
+     * @return group or null if it is unknown in this node
+     */
+    public static PropagationGroup get(String id) {
+        purge();
+        return id == null ? null : GROUPS.get(id);
+    }
+
+    /**
+     * Get running groups.
+     *
+     * @return groups
+     */
+    public static Collection<PropagationGroup> getGroups() {
+        purge();
+        return new ArrayList<>(GROUPS.values());
+    }
+
+    /**
+     * Remove old groups.
+     */
+    private static void purge() {
+        long now = System.currentTimeMillis();
+        for (Iterator<PropagationGroup> it = GROUPS.values().iterator(); it.hasNext();) {
+            if (now - it.next().startTime > MAX_AGE) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Add a scheduled partition.
+     */
+    public void addPartition() {
+        partitions.incrementAndGet();
+    }
+
+    /**
+     * Mark all partitions as scheduled.
+     */
+    public void setScheduled() {
+        scheduled = true;
+        checkCompleted();
+    }
+
+    /**
+     * Partition has finished.
+     *
+     * @param processed number of processed documents
+     * @param saved number of saved documents
+     * @param failed if partition has failed
+     */
+    public void partitionDone(int processed, int saved, boolean failed) {
+        processedDocuments.addAndGet(processed);
+        savedDocuments.addAndGet(saved);
+        if (failed) {
+            failedPartitions.incrementAndGet();
+        }
+        completedPartitions.incrementAndGet();
+        checkCompleted();
+    }
+
+    /**
+     * Remove group when all partitions are done.
+     */
+    private void checkCompleted() {
+        if (isCompleted() && GROUPS.remove(id) != null) {
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Propagation from " + parentId + " completed: " + this);
+            }
+        }
+    }
+
+    public boolean isCompleted() {
+        return scheduled && completedPartitions.get() >= partitions.get();
+    }
+
+    /**
+     * Get progress.
+     *
+     * @return percent of completed partitions
+     */
+    public float getProgress() {
+        int total = partitions.get();
+        return total == 0 ? 0 : completedPartitions.get() * 100f / total;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public int getPartitions() {
+        return partitions.get();
+    }
+
+    public int getCompletedPartitions() {
+        return completedPartitions.get();
+    }
+
+    public int getFailedPartitions() {
+        return failedPartitions.get();
+    }
+
+    public int getProcessedDocuments() {
+        return processedDocuments.get();
+    }
+
+    public int getSavedDocuments() {
+        return savedDocuments.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PropagationGroup [id=" + id + ", partitions=" + partitions + ", completed="
+                + completedPartitions + ", failed=" + failedPartitions + ", processed="
+                + processedDocuments + ", saved=" + savedDocuments + ", duration="
+                + (System.currentTimeMillis() - startTime) + "ms]";
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.athento.nuxeo.worker;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.athento.nuxeo.config.InheritanceConfig;
+import org.athento.nuxeo.propagation.PropagationCheckpoint;
+import org.athento.nuxeo.utils.InheritUtil;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.UnrestrictedSessionRunner;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.schema.utils.DateParser;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import java.io.Serializable;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * Resume the propagations interrupted by a restart: a propagation work is
+ * scheduled for each parent with a checkpoint ("inheritancePropagation"
+ * facet), and it continues after the last committed inheritor.
+ *
+ * A checkpoint updated less than "inheritance.checkpoint.staleAfter" seconds
+ * ago could belong to a propagation still running in another node, so it is
+ * only resumed by the node which wrote it, when this node starts.
+ */
+public class PropagationResumeComponent extends DefaultComponent {
+
+    /** Log. */
+    private static final Log LOG = LogFactory.getLog(PropagationResumeComponent.class);
+
+    /** Parents with a checkpoint. */
+    private static final String QUERY = "SELECT ecm:uuid, inheritanceJob:changedMetadatas, "
+            + "inheritanceJob:allMetadatas FROM Document WHERE ecm:mixinType = "
+            + NXQL.escapeString(PropagationCheckpoint.FACET) + " AND ecm:isCheckedInVersion = 0";
+
+    @Override
+    public void applicationStarted(ComponentContext context) {
+        if (!Boolean.parseBoolean(Framework.getProperty("inheritance.checkpoint.enabled", "false"))
+                || !Boolean.parseBoolean(Framework.getProperty("inheritance.checkpoint.resumeOnStart", "true"))) {
+            return;
+        }
+        RepositoryManager repositoryManager = Framework.getLocalService(RepositoryManager.class);
+        for (String repositoryName : repositoryManager.getRepositoryNames()) {
+            boolean started = !TransactionHelper.isTransactionActive() && TransactionHelper.startTransaction();
+            try {
+                new UnrestrictedSessionRunner(repositoryName) {
+                    @Override
+                    public void run() {
+                        resume(session, true);
+                    }
+                }.runUnrestricted();
+            } catch (Exception e) {
+                LOG.error("Unable to resume propagations of repository " + repositoryName, e);
+            } finally {
+                if (started) {
+                    TransactionHelper.commitOrRollbackTransaction();
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule a propagation work for each parent with a stale checkpoint.
+     *
+     * @param session
+     * @return number of scheduled works
+     */
+    public static int resume(CoreSession session) {
+        return resume(session, false);
+    }
+
+    /**
+     * Schedule a propagation work for each parent with a stale checkpoint.
+     *
+     * @param session
+     * @param started if this node has just started, so its own checkpoints
+     *            are not running and are resumed too
+     * @return number of scheduled works
+     */
+    public static int resume(CoreSession session, boolean started) {
+        InheritanceConfig config = InheritUtil.getConfig(session);
+        if (!config.isEnableInheritance()) {
+            return 0;
+        }
+        Calendar staleLimit = Calendar.getInstance();
+        staleLimit.add(Calendar.SECOND, -Integer.parseInt(Framework.getProperty(
+                "inheritance.checkpoint.staleAfter", "600")));
+        StringBuilder query = new StringBuilder(QUERY);
+        query.append(" AND (inheritanceJob:updatedAt IS NULL OR inheritanceJob:updatedAt < TIMESTAMP '")
+                .append(DateParser.formatW3CDateTime(staleLimit.getTime())).append('\'');
+        if (started) {
+            query.append(" OR inheritanceJob:owner = ").append(NXQL.escapeString(PropagationCheckpoint.getNodeId()));
+        }
+        query.append(')');
+        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+        int count = 0;
+        IterableQueryResult result = session.queryAndFetch(query.toString(), NXQL.NXQL);
+        try {
+            for (Map<String, Serializable> row : result) {
+                String changedMetadatas = Boolean.TRUE.equals(row.get("inheritanceJob:allMetadatas")) ? null
+                        : (String) row.get("inheritanceJob:changedMetadatas");
+                PropagateMetadataFromParentWorker worker = new PropagateMetadataFromParentWorker(
+                        session.getRepositoryName(), (String) row.get(NXQL.ECM_UUID), changedMetadatas);
+                worker.setIgnoreVersions(config.isIgnoreVersions());
+                workManager.schedule(worker, WorkManager.Scheduling.IF_NOT_SCHEDULED);
+                count++;
+            }
+        } finally {
+            result.close();
+        }
+        if (count > 0) {
+            LOG.info("Resuming " + count + " interrupted propagations of repository " + session.getRepositoryName());
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.athento.nuxeo.propagation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Resume and merge rules of {@link PropagationCheckpoint}.
+ */
+public class PropagationCheckpointTest {
+
+    @Test
+    public void canResumeSameMetadatasAndSource() {
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint("dc:title,ex:code", date(1000));
+        assertTrue(checkpoint.canResume("ex:code, dc:title", date(1000)));
+        assertFalse(checkpoint.canResume("dc:title", date(1000)));
+        assertFalse(checkpoint.canResume(null, date(1000)));
+    }
+
+    @Test
+    public void canResumeAllMetadatas() {
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint(null, date(1000));
+        assertTrue(checkpoint.canResume(null, date(1000)));
+        assertFalse(checkpoint.canResume("dc:title", date(1000)));
+    }
+
+    @Test
+    public void cannotResumeModifiedSource() {
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint("dc:title", date(1000));
+        assertFalse(checkpoint.canResume("dc:title", date(2000)));
+        assertFalse(checkpoint.canResume("dc:title", null));
+        PropagationCheckpoint withoutSource = new PropagationCheckpoint("dc:title", null);
+        assertTrue(withoutSource.canResume("dc:title", null));
+        assertFalse(withoutSource.canResume("dc:title", date(1000)));
+    }
+
+    @Test
+    public void mergeMetadatas() {
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint("dc:title,ex:code", date(1000));
+        assertEquals("dc:title,ex:code,ex:name", checkpoint.merge("ex:code,ex:name"));
+        assertNull(checkpoint.merge(null));
+        assertNull(new PropagationCheckpoint(null, date(1000)).merge("dc:title"));
+    }
+
+    @Test
+    public void advanceKeepsCountersOfPreviousRuns() {
+        PropagationCheckpoint checkpoint = new PropagationCheckpoint(null, date(1000));
+        checkpoint.advance("id1", 10, 5, 1, Arrays.asList("id0"));
+        assertEquals("id1", checkpoint.getLastId());
+        assertEquals(10, checkpoint.getProcessed());
+        assertEquals(Arrays.asList("id0"), checkpoint.getFailedIds());
+        checkpoint.advance("id2", 20, 8, 1, Collections.<String> emptyList());
+        assertEquals(20, checkpoint.getProcessed());
+        assertEquals(8, checkpoint.getSaved());
+        assertTrue(checkpoint.getFailedIds().isEmpty());
+    }
+
+    private static Calendar date(long time) {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(time);
+        return date;
+    }
+
+}
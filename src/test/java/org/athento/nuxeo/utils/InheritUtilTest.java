@@ -0,0 +1,120 @@
+package org.athento.nuxeo.utils;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.model.impl.ComplexProperty;
+import org.nuxeo.ecm.core.api.model.impl.ListProperty;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Update of complex and list properties by {@link InheritUtil}.
+ */
+public class InheritUtilTest {
+
+    @Test
+    public void equalComplexValueIsNotUpdated() {
+        Property name = scalar("name", "a");
+        Property code = scalar("code", 1L);
+        ComplexProperty p = complex(map("a", 1L), name, code);
+        assertFalse(InheritUtil.updateIfChanged(p, map("a", 1L)));
+        verify(p, never()).setValue(any());
+        verify(name, never()).setValue(any());
+        verify(code, never()).setValue(any());
+    }
+
+    @Test
+    public void complexValueIsUpdatedByField() {
+        Property name = scalar("name", "a");
+        Property code = scalar("code", 1L);
+        ComplexProperty p = complex(map("a", 1L), name, code);
+        assertTrue(InheritUtil.updateIfChanged(p, map("a", 2L)));
+        verify(p, never()).setValue(any());
+        verify(name, never()).setValue(any());
+        verify(code).setValue(2L);
+    }
+
+    @Test
+    public void complexValueWithOtherFieldsIsReplaced() {
+        ComplexProperty p = complex(map("a", 1L), scalar("name", "a"), scalar("code", 1L));
+        HashMap<String, Serializable> value = new HashMap<>();
+        value.put("name", "a");
+        assertTrue(InheritUtil.updateIfChanged(p, value));
+        verify(p).setValue(value);
+    }
+
+    @Test
+    public void listOfSameSizeIsUpdatedByItem() {
+        Property item0 = scalar("item", "a");
+        Property item1 = scalar("item", "b");
+        ListProperty p = list(Arrays.asList("a", "b"), item0, item1);
+        assertTrue(InheritUtil.updateIfChanged(p, Arrays.asList("a", "c")));
+        verify(p, never()).setValue(any());
+        verify(item0, never()).setValue(any());
+        verify(item1).setValue("c");
+    }
+
+    @Test
+    public void listOfOtherSizeIsReplaced() {
+        ListProperty p = list(Arrays.asList("a", "b"), scalar("item", "a"), scalar("item", "b"));
+        List<String> value = Arrays.asList("a", "b", "c");
+        assertTrue(InheritUtil.updateIfChanged(p, value));
+        verify(p).setValue(value);
+    }
+
+    @Test
+    public void equalListIsNotUpdated() {
+        Property item0 = scalar("item", "a");
+        ListProperty p = list(Arrays.asList("a"), item0);
+        assertFalse(InheritUtil.updateIfChanged(p, Arrays.asList("a")));
+        verify(p, never()).setValue(any());
+        verify(item0, never()).setValue(any());
+    }
+
+    private static HashMap<String, Serializable> map(String name, long code) {
+        HashMap<String, Serializable> map = new HashMap<>();
+        map.put("name", name);
+        map.put("code", code);
+        return map;
+    }
+
+    private static Property scalar(String name, Serializable value) {
+        Property p = mock(Property.class);
+        when(p.getName()).thenReturn(name);
+        when(p.getValue()).thenReturn(value);
+        return p;
+    }
+
+    private static ComplexProperty complex(Map<String, Serializable> value, Property... children) {
+        ComplexProperty p = mock(ComplexProperty.class);
+        when(p.getValue()).thenReturn((Serializable) value);
+        Collection<Property> list = new ArrayList<>(Arrays.asList(children));
+        when(p.getChildren()).thenReturn(list);
+        return p;
+    }
+
+    private static ListProperty list(List<String> value, Property... items) {
+        ListProperty p = mock(ListProperty.class);
+        when(p.getValue()).thenReturn(new ArrayList<>(value));
+        when(p.size()).thenReturn(items.length);
+        for (int i = 0; i < items.length; i++) {
+            when(p.get(i)).thenReturn(items[i]);
+        }
+        return p;
+    }
+
+}
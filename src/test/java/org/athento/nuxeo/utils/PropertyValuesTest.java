@@ -0,0 +1,69 @@
+package org.athento.nuxeo.utils;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
+import org.nuxeo.ecm.core.blob.ManagedBlob;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Blob comparison of {@link PropertyValues}.
+ */
+public class PropertyValuesTest {
+
+    @Test
+    public void sameBinaryByDigest() {
+        assertTrue(PropertyValues.sameBinary(blob("abc", "a.txt"), blob("abc", "b.txt")));
+        assertFalse(PropertyValues.sameBinary(blob("abc", "a.txt"), blob("def", "a.txt")));
+    }
+
+    @Test
+    public void sameBinaryByKeyWithoutDigest() {
+        assertTrue(PropertyValues.sameBinary(managedBlob("key1"), managedBlob("key1")));
+        assertFalse(PropertyValues.sameBinary(managedBlob("key1"), managedBlob("key2")));
+    }
+
+    @Test
+    public void blobsWithoutDigestNorKeyAreNotSameBinary() {
+        Blob blob = blob(null, "a.txt");
+        assertFalse(PropertyValues.sameBinary(blob, blob));
+        assertFalse(PropertyValues.sameBinary(blob, blob(null, "a.txt")));
+        assertFalse(PropertyValues.sameBinary(managedBlob(null), managedBlob(null)));
+    }
+
+    @Test
+    public void blobEqualsChecksFilenameAndMimeType() {
+        assertTrue(PropertyValues.blobEquals(blob("abc", "a.txt"), blob("abc", "a.txt")));
+        assertFalse(PropertyValues.blobEquals(blob("abc", "a.txt"), blob("abc", "b.txt")));
+        Blob pdf = blob("abc", "a.txt");
+        pdf.setMimeType("application/pdf");
+        assertFalse(PropertyValues.blobEquals(blob("abc", "a.txt"), pdf));
+        assertFalse(PropertyValues.blobEquals(blob("abc", "a.txt"), blob("def", "a.txt")));
+    }
+
+    @Test
+    public void valueEqualsComparesBlobsInComplexValues() {
+        assertTrue(PropertyValues.valueEquals(new Object[] { blob("abc", "a.txt") },
+                new Object[] { blob("abc", "a.txt") }));
+        assertFalse(PropertyValues.valueEquals(new Object[] { blob("abc", "a.txt") },
+                new Object[] { blob("def", "a.txt") }));
+    }
+
+    private static Blob blob(String digest, String filename) {
+        StringBlob blob = new StringBlob("content", "text/plain");
+        blob.setDigest(digest);
+        blob.setFilename(filename);
+        return blob;
+    }
+
+    private static Blob managedBlob(String key) {
+        ManagedBlob blob = mock(ManagedBlob.class);
+        when(blob.getKey()).thenReturn(key);
+        return blob;
+    }
+
+}